@@ -0,0 +1,164 @@
+package org.opencv.android;
+
+import org.opencv.android.CameraBridgeViewBase.CvCameraViewFrame;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import android.graphics.ImageFormat;
+
+/**
+ * Camera frame that computes its derived images (RGBA, gray, pyramid levels, HSV) on first
+ * use and keeps them until the frame buffer is refilled, see onCaptured(). The Mats are owned
+ * by the frame and reused for every frame captured into it, so a derived image costs one
+ * conversion per frame no matter how many consumers ask for it. The consumers only read
+ * them: a write into rgba() would not reach the derived images computed before.
+ */
+class CachedCameraFrame implements CvCameraViewFrame {
+    static final int MAX_LEVEL = 4;
+
+    protected final Mat mYuvFrameData;
+    protected final int mWidth;
+    protected final int mHeight;
+    private final int mPreviewFormat;
+    //capture time and number set by the camera view, see onCaptured
+    private long mTimestamp;
+    private long mSequence;
+
+    private final Mat mRgba = new Mat();
+    private boolean mRgbaValid;
+    private Mat mGray;
+    //pyramid level 1, 2, ... at index 0, 1, ...
+    private final Mat[] mPyramid = new Mat[MAX_LEVEL];
+    private final boolean[] mPyramidValid = new boolean[MAX_LEVEL];
+    private final Mat[] mHsv = new Mat[MAX_LEVEL + 1];
+    private final boolean[] mHsvValid = new boolean[MAX_LEVEL + 1];
+
+    private final LatencyMetrics mMetrics;
+
+    /**
+     * @param metrics records the YUV to RGBA conversions
+     */
+    CachedCameraFrame(Mat yuv, int width, int height, int previewFormat, LatencyMetrics metrics) {
+        mMetrics = metrics;
+        mYuvFrameData = yuv;
+        mWidth = width;
+        mHeight = height;
+        mPreviewFormat = previewFormat;
+    }
+
+    /**
+     * A new frame was copied into the buffer: forget the derived images of the previous one
+     * @param timestamp capture time, SystemClock.elapsedRealtimeNanos() base
+     * @param sequence number of the frame in capture order
+     */
+    synchronized void onCaptured(long timestamp, long sequence) {
+        mTimestamp = timestamp;
+        mSequence = sequence;
+        invalidate();
+    }
+
+    private void invalidate() {
+        mRgbaValid = false;
+        for (int i = 0; i < MAX_LEVEL; i++) {
+            mPyramidValid[i] = false;
+        }
+        for (int i = 0; i <= MAX_LEVEL; i++) {
+            mHsvValid[i] = false;
+        }
+    }
+
+    @Override
+    public synchronized Mat gray() {
+        //the Y plane, the header is created once
+        if (mGray == null)
+            mGray = mYuvFrameData.submat(0, mHeight, 0, mWidth);
+        return mGray;
+    }
+
+    @Override
+    public synchronized Mat rgba() {
+        if (!mRgbaValid) {
+            long start = System.nanoTime();
+            if (mPreviewFormat == ImageFormat.NV21)
+                Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+            else if (mPreviewFormat == ImageFormat.YV12)
+                Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGB_I420, 4);  // COLOR_YUV2RGBA_YV12 produces inverted colors
+            else
+                throw new IllegalArgumentException("Preview Format can be NV21 or YV12");
+            mMetrics.stop(LatencyMetrics.Stage.YUV_CONVERSION, start);
+            mRgbaValid = true;
+        }
+        return mRgba;
+    }
+
+    @Override
+    public Mat yuv() {
+        return mYuvFrameData;
+    }
+
+    @Override
+    public int previewFormat() {
+        return mPreviewFormat;
+    }
+
+    @Override
+    public synchronized long timestamp() {
+        return mTimestamp;
+    }
+
+    @Override
+    public synchronized long sequence() {
+        return mSequence;
+    }
+
+    @Override
+    public synchronized Mat pyramid(int level) {
+        checkLevel(level);
+        if (level == 0)
+            return rgba();
+        int i = level - 1;
+        if (!mPyramidValid[i]) {
+            Mat source = pyramid(level - 1);
+            if (mPyramid[i] == null)
+                mPyramid[i] = new Mat();
+            Imgproc.pyrDown(source, mPyramid[i]);
+            mPyramidValid[i] = true;
+        }
+        return mPyramid[i];
+    }
+
+    @Override
+    public synchronized Mat hsv(int level) {
+        checkLevel(level);
+        if (!mHsvValid[level]) {
+            Mat source = pyramid(level);
+            if (mHsv[level] == null)
+                mHsv[level] = new Mat();
+            Imgproc.cvtColor(source, mHsv[level], Imgproc.COLOR_RGB2HSV_FULL);
+            mHsvValid[level] = true;
+        }
+        return mHsv[level];
+    }
+
+    private static void checkLevel(int level) {
+        if (level < 0 || level > MAX_LEVEL)
+            throw new IllegalArgumentException("Pyramid level must be 0.." + MAX_LEVEL);
+    }
+
+    synchronized void release() {
+        invalidate();
+        mRgba.release();
+        if (mGray != null) {
+            mGray.release();
+            mGray = null;
+        }
+        for (int i = 0; i < MAX_LEVEL; i++) {
+            if (mPyramid[i] != null)
+                mPyramid[i].release();
+        }
+        for (int i = 0; i <= MAX_LEVEL; i++) {
+            if (mHsv[i] != null)
+                mHsv[i].release();
+        }
+    }
+}
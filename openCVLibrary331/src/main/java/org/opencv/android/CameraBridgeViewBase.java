@@ -2,7 +2,6 @@ package org.opencv.android;
 
 import java.util.List;
 
-import org.opencv.BuildConfig;
 import org.opencv.R;
 import org.opencv.core.Mat;
 import org.opencv.core.Size;
@@ -15,6 +14,7 @@ import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Rect;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.SurfaceHolder;
@@ -36,6 +36,14 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
 
     private int mState = STOPPED;
     private Bitmap mCacheBitmap;
+    // Display geometry, computed when the canvas, the bitmap or the scale changes
+    private final Rect mSrcRect = new Rect();
+    private final Rect mDstRect = new Rect();
+    private int mGeometryCanvasWidth = -1;
+    private int mGeometryCanvasHeight = -1;
+    private float mGeometryScale;
+    private boolean mCoversSurface;
+    private boolean mUnscaled;
     private CvCameraViewListener2 mListener;
     private boolean mSurfaceExist;
     private final Object mSyncObject = new Object();
@@ -48,7 +56,11 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     protected int mPreviewFormat = RGBA;
     protected int mCameraIndex = CAMERA_ID_ANY;
     protected boolean mEnabled;
-    protected FpsMeter mFpsMeter = null;
+    protected MetricsHud mHud = null;
+    protected final LatencyMetrics mMetrics = new LatencyMetrics();
+    protected ResolutionGovernor mGovernor;
+    //frame width at governor level 0, the reference of the camera scale
+    private int mGovernorFullWidth;
 
     public static final int CAMERA_ID_ANY   = -1;
     public static final int CAMERA_ID_BACK  = 99;
@@ -176,11 +188,14 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     /**
      * This class interface is abstract representation of single frame from camera for onCameraFrame callback
      * Attention: Do not use objects, that represents this interface out of onCameraFrame callback!
+     * The derived images are computed on first use and shared by all consumers of the frame,
+     * drawing into one of them changes it for the later consumers too.
      */
     public interface CvCameraViewFrame {
 
         /**
-         * This method returns RGBA Mat with frame
+         * This method returns RGBA Mat with frame. It is cached and shared with pyramid(), hsv()
+         * and every other consumer of the frame, so treat it as read only and draw on a copy.
          */
         public Mat rgba();
 
@@ -188,11 +203,45 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
          * This method returns single channel gray scale Mat with frame
          */
         public Mat gray();
+
+        /**
+         * This method returns the raw camera frame: the full resolution Y plane followed by the
+         * quarter resolution chroma, height * 3 / 2 rows of width bytes, see previewFormat()
+         */
+        public Mat yuv();
+
+        /**
+         * This method returns the layout of yuv(), ImageFormat.NV21 or ImageFormat.YV12
+         */
+        public int previewFormat();
+
+        /**
+         * This method returns the capture time of the frame in nanoseconds, in the base of
+         * SystemClock.elapsedRealtimeNanos(). It is monotonic, 0 if the camera does not report it.
+         */
+        public long timestamp();
+
+        /**
+         * This method returns the number of the frame in capture order. Frames dropped before
+         * the delivery leave a gap in the numbers, see LatencyMetrics.getSequenceGaps().
+         */
+        public long sequence();
+
+        /**
+         * This method returns rgba() halved level times with pyrDown, level 0 is rgba() itself
+         */
+        public Mat pyramid(int level);
+
+        /**
+         * This method returns pyramid(level) converted with COLOR_RGB2HSV_FULL
+         */
+        public Mat hsv(int level);
     };
 
     public void surfaceChanged(SurfaceHolder arg0, int arg1, int arg2, int arg3) {
         Log.d(TAG, "call surfaceChanged event");
         synchronized(mSyncObject) {
+            mGeometryCanvasWidth = -1;
             if (!mSurfaceExist) {
                 mSurfaceExist = true;
                 checkCurrentState();
@@ -242,19 +291,74 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     }
 
     /**
-     * This method enables label with fps value on the screen
+     * This method enables the metrics HUD: the fps value and the latencies of the frame stages
      */
-    public void enableFpsMeter() {
-        if (mFpsMeter == null) {
-            mFpsMeter = new FpsMeter();
-            mFpsMeter.setResolution(mFrameWidth, mFrameHeight);
+    public void enableMetricsHud() {
+        if (mHud == null) {
+            mHud = new MetricsHud();
+            mHud.setResolution(mFrameWidth, mFrameHeight);
         }
     }
 
+    public void disableMetricsHud() {
+        mHud = null;
+    }
+
+    /**
+     * Same as enableMetricsHud()
+     */
+    public void enableFpsMeter() {
+        enableMetricsHud();
+    }
+
     public void disableFpsMeter() {
-            mFpsMeter = null;
+        disableMetricsHud();
+    }
+
+    /**
+     * Latency histograms of the frame stages recorded by this view: capture, YUV conversion,
+     * listener processing, bitmap upload and canvas post. Pass it to the listener so it records
+     * its own stages into the same registry. The HUD drains it at every refresh, see
+     * LatencyMetrics.drainTo().
+     */
+    public LatencyMetrics getLatencyMetrics() {
+        return mMetrics;
     }
 
+    /**
+     * This method lets the governor step the preview size down and up with the processing time
+     * of the listener. A level change reconnects the camera, the listener gets
+     * onCameraViewStopped and onCameraViewStarted with the new size.
+     * @param governor null to always use the largest preview size
+     */
+    public void setResolutionGovernor(ResolutionGovernor governor) {
+        if (governor != null)
+            governor.reset();
+        //the current frames are at level 0 until the next connection
+        mGovernorFullWidth = mFrameWidth;
+        mGovernor = governor;
+    }
+
+    public ResolutionGovernor getResolutionGovernor() {
+        return mGovernor;
+    }
+
+    //reconnect the camera at the preview size of the governor level, on the UI thread
+    private final Runnable mApplyResolution = new Runnable() {
+        @Override
+        public void run() {
+            synchronized(mSyncObject) {
+                if (mState != STARTED)
+                    return;
+                /* Same as a surface change: stop the camera and restart it with the new maximum size */
+                mEnabled = false;
+                checkCurrentState();
+                mEnabled = true;
+                checkCurrentState();
+            }
+        }
+    };
+
     /**
      *
      * @param listener
@@ -357,7 +461,13 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     private void onEnterStartedState() {
         Log.d(TAG, "call onEnterStartedState");
         /* Connect camera */
-        if (!connectCamera(getWidth(), getHeight())) {
+        boolean connected = connectCamera(getWidth(), getHeight());
+        if (connected && mGovernor != null) {
+            if (mGovernor.getCameraLevel() == 0 || mGovernorFullWidth == 0)
+                mGovernorFullWidth = mFrameWidth;
+            mGovernor.setCameraScale((double) mFrameWidth / mGovernorFullWidth);
+        }
+        if (!connected) {
             AlertDialog ad = new AlertDialog.Builder(getContext()).create();
             ad.setCancelable(false); // This blocks the 'BACK' button
             ad.setMessage("It seems that you device does not support camera (or it is locked). Application will be closed.");
@@ -386,18 +496,53 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
      * @param frame - the current frame to be delivered
      */
     protected void deliverAndDrawFrame(CvCameraViewFrame frame) {
-        Mat modified;
+        drawFrame(deliverFrame(frame));
+        recordAge(LatencyMetrics.Stage.DISPLAY_AGE, frame.timestamp());
+    }
 
-        if (mListener != null) {
-            modified = mListener.onCameraFrame(frame);
-        } else {
-            modified = frame.rgba();
+    /**
+     * Record the time since the capture of a frame
+     * @param captureTimestamp CvCameraViewFrame.timestamp() of the frame, ignored if 0
+     */
+    protected void recordAge(LatencyMetrics.Stage stage, long captureTimestamp) {
+        if (captureTimestamp > 0)
+            mMetrics.record(stage, SystemClock.elapsedRealtimeNanos() - captureTimestamp);
+    }
+
+    /**
+     * Deliver the frame to the external client (via callback)
+     * @param frame - the current frame to be delivered
+     * @return the frame to be displayed
+     */
+    protected Mat deliverFrame(CvCameraViewFrame frame) {
+        mMetrics.recordSequence(frame.sequence());
+        long start = System.nanoTime();
+        try {
+            if (mListener != null) {
+                return mListener.onCameraFrame(frame);
+            } else {
+                return frame.rgba();
+            }
+        } finally {
+            mMetrics.stop(LatencyMetrics.Stage.PROCESS, start);
+            recordAge(LatencyMetrics.Stage.RESULT_AGE, frame.timestamp());
+            ResolutionGovernor governor = mGovernor;
+            if (governor != null && governor.record(System.nanoTime() - start) && governor.isReconnect())
+                post(mApplyResolution);
         }
+    }
 
+    /**
+     * Display the frame returned by the external client on the screen
+     * @param modified - the frame to be displayed, may be null
+     */
+    protected void drawFrame(Mat modified) {
         boolean bmpValid = true;
         if (modified != null) {
+            long start = System.nanoTime();
             try {
                 Utils.matToBitmap(modified, mCacheBitmap);
+                mMetrics.stop(LatencyMetrics.Stage.BITMAP_UPLOAD, start);
             } catch(Exception e) {
                 Log.e(TAG, "Mat type: " + modified);
                 Log.e(TAG, "Bitmap type: " + mCacheBitmap.getWidth() + "*" + mCacheBitmap.getHeight());
@@ -407,35 +552,72 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         }
 
         if (bmpValid && mCacheBitmap != null) {
+            long start = System.nanoTime();
             Canvas canvas = getHolder().lockCanvas();
             if (canvas != null) {
-                canvas.drawColor(0, android.graphics.PorterDuff.Mode.CLEAR);
-                if (BuildConfig.DEBUG)
-                    Log.d(TAG, "mStretch value: " + mScale);
-
-                if (mScale != 0) {
-                    canvas.drawBitmap(mCacheBitmap, new Rect(0,0,mCacheBitmap.getWidth(), mCacheBitmap.getHeight()),
-                         new Rect((int)((canvas.getWidth() - mScale*mCacheBitmap.getWidth()) / 2),
-                         (int)((canvas.getHeight() - mScale*mCacheBitmap.getHeight()) / 2),
-                         (int)((canvas.getWidth() - mScale*mCacheBitmap.getWidth()) / 2 + mScale*mCacheBitmap.getWidth()),
-                         (int)((canvas.getHeight() - mScale*mCacheBitmap.getHeight()) / 2 + mScale*mCacheBitmap.getHeight())), null);
+                if (canvas.getWidth() != mGeometryCanvasWidth || canvas.getHeight() != mGeometryCanvasHeight
+                        || mScale != mGeometryScale) {
+                    updateDisplayGeometry(canvas.getWidth(), canvas.getHeight());
+                }
+                // The bitmap is opaque, the old content shows only next to it
+                if (!mCoversSurface)
+                    canvas.drawColor(0, android.graphics.PorterDuff.Mode.CLEAR);
+
+                if (mUnscaled) {
+                    canvas.drawBitmap(mCacheBitmap, mDstRect.left, mDstRect.top, null);
                 } else {
-                     canvas.drawBitmap(mCacheBitmap, new Rect(0,0,mCacheBitmap.getWidth(), mCacheBitmap.getHeight()),
-                         new Rect((canvas.getWidth() - mCacheBitmap.getWidth()) / 2,
-                         (canvas.getHeight() - mCacheBitmap.getHeight()) / 2,
-                         (canvas.getWidth() - mCacheBitmap.getWidth()) / 2 + mCacheBitmap.getWidth(),
-                         (canvas.getHeight() - mCacheBitmap.getHeight()) / 2 + mCacheBitmap.getHeight()), null);
+                    canvas.drawBitmap(mCacheBitmap, mSrcRect, mDstRect, null);
                 }
 
-                if (mFpsMeter != null) {
-                    mFpsMeter.measure();
-                    mFpsMeter.draw(canvas, 20, 30);
+                if (mHud != null) {
+                    mHud.draw(canvas, mMetrics, 20, 30);
                 }
                 getHolder().unlockCanvasAndPost(canvas);
+                mMetrics.stop(LatencyMetrics.Stage.CANVAS_POST, start);
             }
         }
     }
 
+    /**
+     * Where the frames are drawn on this view, e.g. to align an overlay view with them
+     * @param out receives the destination rectangle in view coordinates
+     * @return false until the first frame is drawn
+     */
+    public boolean getDisplayRect(Rect out) {
+        synchronized (mDstRect) {
+            if (mGeometryCanvasWidth < 0)
+                return false;
+            out.set(mDstRect.left, mDstRect.top, mDstRect.right, mDstRect.bottom);
+            return true;
+        }
+    }
+
+    /**
+     * Center the (scaled) cache bitmap on the canvas. Called from drawFrame when the canvas size
+     * or the scale changes, so the frames are drawn without allocations.
+     */
+    private void updateDisplayGeometry(int canvasWidth, int canvasHeight) {
+        int bitmapWidth = mCacheBitmap.getWidth();
+        int bitmapHeight = mCacheBitmap.getHeight();
+        float scale = mScale != 0 ? mScale : 1;
+        int width = (int) (scale * bitmapWidth);
+        int height = (int) (scale * bitmapHeight);
+        int left = (canvasWidth - width) / 2;
+        int top = (canvasHeight - height) / 2;
+
+        mSrcRect.set(0, 0, bitmapWidth, bitmapHeight);
+        synchronized (mDstRect) {
+            mDstRect.set(left, top, left + width, top + height);
+        }
+        mCoversSurface = left <= 0 && top <= 0 && left + width >= canvasWidth && top + height >= canvasHeight;
+        mUnscaled = width == bitmapWidth && height == bitmapHeight;
+        mGeometryCanvasWidth = canvasWidth;
+        mGeometryCanvasHeight = canvasHeight;
+        mGeometryScale = mScale;
+        Log.d(TAG, "Display geometry: scale " + mScale + ", destination " + left + "," + top + " " + width + "x" + height
+                + (mCoversSurface ? ", covers the surface" : ""));
+    }
+
     /**
      * This method is invoked shall perform concrete operation to initialize the camera.
      * CONTRACT: as a result of this method variables mFrameWidth and mFrameHeight MUST be
@@ -455,6 +637,7 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     protected void AllocateCache()
     {
         mCacheBitmap = Bitmap.createBitmap(mFrameWidth, mFrameHeight, Bitmap.Config.ARGB_8888);
+        mGeometryCanvasWidth = -1;
     }
 
     public interface ListItemAccessor {
@@ -465,19 +648,31 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     /**
      * This helper method can be called by subclasses to select camera preview size.
      * It goes over the list of the supported preview sizes and selects the maximum one which
-     * fits both values set via setMaxFrameSize() and surface frame allocated for this view
+     * fits both values set via setMaxFrameSize() and surface frame allocated for this view.
+     * Every level of the resolution governor halves these values, as long as a size fits.
      * @param supportedSizes
      * @param surfaceWidth
      * @param surfaceHeight
      * @return optimal frame size
      */
     protected Size calculateCameraFrameSize(List<?> supportedSizes, ListItemAccessor accessor, int surfaceWidth, int surfaceHeight) {
-        int calcWidth = 0;
-        int calcHeight = 0;
-
         int maxAllowedWidth = (mMaxWidth != MAX_UNSPECIFIED && mMaxWidth < surfaceWidth)? mMaxWidth : surfaceWidth;
         int maxAllowedHeight = (mMaxHeight != MAX_UNSPECIFIED && mMaxHeight < surfaceHeight)? mMaxHeight : surfaceHeight;
 
+        int level = mGovernor != null ? mGovernor.getCameraLevel() : 0;
+        Size size = largestFrameSize(supportedSizes, accessor, maxAllowedWidth >> level, maxAllowedHeight >> level);
+        // without a size that small, the rest of the level is left to the pyramid level
+        while (size.width == 0 && level > 0) {
+            level--;
+            size = largestFrameSize(supportedSizes, accessor, maxAllowedWidth >> level, maxAllowedHeight >> level);
+        }
+        return size;
+    }
+
+    private static Size largestFrameSize(List<?> supportedSizes, ListItemAccessor accessor, int maxAllowedWidth, int maxAllowedHeight) {
+        int calcWidth = 0;
+        int calcHeight = 0;
+
         for (Object size : supportedSizes) {
             int width = accessor.getWidth(size);
             int height = accessor.getHeight(size);
@@ -0,0 +1,367 @@
+package org.opencv.android;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.android.CameraBridgeViewBase.CvCameraViewFrame;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import android.util.Log;
+
+/**
+ * Pipelined frame path: capture, YUV to RGBA conversion, listener processing and rendering
+ * run on their own threads, connected by one frame hand-off queues. All frames are
+ * preallocated, a frame travels through the stages and goes back to the free pool after
+ * rendering. The throughput is bounded by the slowest stage instead of the sum of the stages.
+ * A stage that is slower than the one before it finds its queue full, that is where the drop
+ * policy applies, so at most one frame waits in front of every stage.
+ */
+public class FramePipeline {
+    private static final String TAG = "FramePipeline";
+    //frames waiting in front of a stage
+    private static final int QUEUE_CAPACITY = 1;
+
+    /**
+     * What to do when the queue of the next stage is full
+     */
+    public enum DropPolicy {
+        //wait until the next stage takes a frame. The capture stage never waits, it drops the new frame.
+        BLOCK,
+        //drop the frame that was just produced
+        DROP_NEWEST,
+        //drop the oldest queued frame, so the freshest frame gets through
+        DROP_OLDEST
+    }
+
+    /**
+     * Work done by the processing and rendering stages
+     */
+    public interface Callback {
+        /**
+         * Processing stage, called on the process thread
+         * @return the frame to render
+         */
+        public Mat processFrame(CvCameraViewFrame frame);
+
+        /**
+         * Rendering stage, called on the render thread
+         * @param timestamp capture time of the frame
+         */
+        public void renderFrame(Mat frame, long timestamp);
+    }
+
+    /**
+     * Counters of one stage. The occupancy is the share of time the stage was busy.
+     */
+    public static class Stage {
+        private final String mName;
+        private final AtomicLong mProcessed = new AtomicLong();
+        private final AtomicLong mDropped = new AtomicLong();
+        private final AtomicLong mBusyNanos = new AtomicLong();
+        private final BlockingQueue<PipelineFrame> mQueue;
+        private volatile long mStartNanos = System.nanoTime();
+
+        Stage(String name, BlockingQueue<PipelineFrame> queue) {
+            mName = name;
+            mQueue = queue;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public long getProcessed() {
+            return mProcessed.get();
+        }
+
+        /**
+         * Frames dropped because the input queue of this stage was full
+         */
+        public long getDropped() {
+            return mDropped.get();
+        }
+
+        /**
+         * Frames waiting in the input queue of this stage
+         */
+        public int getQueued() {
+            return mQueue == null ? 0 : mQueue.size();
+        }
+
+        /**
+         * Busy time / elapsed time since the last reset, 1.0 means this stage is the bottleneck
+         */
+        public double getOccupancy() {
+            long elapsed = System.nanoTime() - mStartNanos;
+            return elapsed > 0 ? (double) mBusyNanos.get() / elapsed : 0;
+        }
+
+        public void reset() {
+            mProcessed.set(0);
+            mDropped.set(0);
+            mBusyNanos.set(0);
+            mStartNanos = System.nanoTime();
+        }
+
+        void done(long startNanos) {
+            mBusyNanos.addAndGet(System.nanoTime() - startNanos);
+            mProcessed.incrementAndGet();
+        }
+    }
+
+    private class PipelineFrame extends CachedCameraFrame {
+        Mat mResult;
+        //copy of a listener result that is not rgba() itself, rgba() stays the camera image
+        final Mat mDisplay = new Mat();
+
+        PipelineFrame() {
+            super(new Mat(FramePipeline.this.mHeight + (FramePipeline.this.mHeight / 2), FramePipeline.this.mWidth, CvType.CV_8UC1),
+                    FramePipeline.this.mWidth, FramePipeline.this.mHeight, FramePipeline.this.mPreviewFormat, mMetrics);
+        }
+
+        @Override
+        synchronized void release() {
+            super.release();
+            mYuvFrameData.release();
+            mDisplay.release();
+        }
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mPreviewFormat;
+    private final DropPolicy mDropPolicy;
+    private final Callback mCallback;
+    private final LatencyMetrics mMetrics;
+
+    private final PipelineFrame[] mFrames;
+    private final BlockingQueue<PipelineFrame> mFree;
+    private final BlockingQueue<PipelineFrame> mConvertQueue;
+    private final BlockingQueue<PipelineFrame> mProcessQueue;
+    private final BlockingQueue<PipelineFrame> mRenderQueue;
+
+    private final Stage mCaptureStage;
+    private final Stage mConvertStage;
+    private final Stage mProcessStage;
+    private final Stage mRenderStage;
+
+    private Thread[] mThreads;
+    private volatile boolean mStopThreads;
+
+    /**
+     * @param width frame width
+     * @param height frame height
+     * @param previewFormat ImageFormat.NV21 or ImageFormat.YV12
+     * @param depth number of preallocated frames, at least 2. Up to 7 are in flight: one in every
+     *              stage and one in every queue between them.
+     * @param dropPolicy what to do when the queue of a stage is full
+     * @param metrics records the YUV to RGBA conversions
+     * @param callback processing and rendering
+     */
+    public FramePipeline(int width, int height, int previewFormat, int depth, DropPolicy dropPolicy, LatencyMetrics metrics, Callback callback) {
+        mWidth = width;
+        mHeight = height;
+        mPreviewFormat = previewFormat;
+        mDropPolicy = dropPolicy;
+        mCallback = callback;
+        mMetrics = metrics;
+
+        int frames = Math.max(2, depth);
+        mFrames = new PipelineFrame[frames];
+        mFree = new ArrayBlockingQueue<>(frames);
+        for (int i = 0; i < frames; i++) {
+            mFrames[i] = new PipelineFrame();
+            mFree.add(mFrames[i]);
+        }
+        mConvertQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        mProcessQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        mRenderQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+        mCaptureStage = new Stage("capture", null);
+        mConvertStage = new Stage("convert", mConvertQueue);
+        mProcessStage = new Stage("process", mProcessQueue);
+        mRenderStage = new Stage("render", mRenderQueue);
+    }
+
+    /**
+     * Stages in pipeline order: capture, convert, process, render
+     */
+    public Stage[] getStages() {
+        return new Stage[] {mCaptureStage, mConvertStage, mProcessStage, mRenderStage};
+    }
+
+    public void start() {
+        mStopThreads = false;
+        mThreads = new Thread[] {
+                new Thread(new Worker(mConvertQueue, mConvertStage), "FramePipeline-convert"),
+                new Thread(new Worker(mProcessQueue, mProcessStage), "FramePipeline-process"),
+                new Thread(new Worker(mRenderQueue, mRenderStage), "FramePipeline-render")
+        };
+        for (Thread thread : mThreads) {
+            thread.start();
+        }
+    }
+
+    public void stop() {
+        mStopThreads = true;
+        if (mThreads == null)
+            return;
+        for (Thread thread : mThreads) {
+            thread.interrupt();
+        }
+        for (Thread thread : mThreads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        mThreads = null;
+    }
+
+    /**
+     * Release the native buffers of the frames, call it after stop()
+     */
+    public void release() {
+        for (PipelineFrame frame : mFrames) {
+            frame.release();
+        }
+    }
+
+    /**
+     * Capture stage, copies the preview buffer into a free frame.
+     * Never blocks: without a free frame the preview buffer is dropped.
+     * @param timestamp capture time of the buffer
+     * @param sequence number of the buffer in capture order
+     * @return true if the frame entered the pipeline
+     */
+    public boolean offer(byte[] data, long timestamp, long sequence) {
+        long start = System.nanoTime();
+        PipelineFrame frame = mFree.poll();
+        if (frame == null && mDropPolicy == DropPolicy.DROP_OLDEST) {
+            //latest wins, take back the oldest frame waiting in front of any stage
+            frame = takeOldestQueued();
+        }
+        if (frame == null) {
+            mCaptureStage.mDropped.incrementAndGet();
+            return false;
+        }
+        frame.mYuvFrameData.put(0, 0, data);
+        frame.onCaptured(timestamp, sequence);
+        mCaptureStage.done(start);
+        //the camera callback must not wait for the convert stage
+        DropPolicy policy = mDropPolicy == DropPolicy.BLOCK ? DropPolicy.DROP_NEWEST : mDropPolicy;
+        return handOff(frame, mConvertQueue, mConvertStage, policy);
+    }
+
+    /**
+     * @return the queued frame captured first, removed from its queue. null if no frame is queued.
+     */
+    private PipelineFrame takeOldestQueued() {
+        Stage[] stages = {mConvertStage, mProcessStage, mRenderStage};
+        while (true) {
+            Stage oldestStage = null;
+            PipelineFrame oldest = null;
+            for (Stage stage : stages) {
+                PipelineFrame head = stage.mQueue.peek();
+                if (head != null && (oldest == null || head.sequence() < oldest.sequence())) {
+                    oldest = head;
+                    oldestStage = stage;
+                }
+            }
+            if (oldest == null)
+                return null;
+            //the worker of the stage may have taken it meanwhile, then look again
+            if (oldestStage.mQueue.remove(oldest)) {
+                oldestStage.mDropped.incrementAndGet();
+                oldest.mResult = null;
+                return oldest;
+            }
+        }
+    }
+
+    private boolean handOff(PipelineFrame frame, BlockingQueue<PipelineFrame> queue, Stage next) {
+        return handOff(frame, queue, next, mDropPolicy);
+    }
+
+    private boolean handOff(PipelineFrame frame, BlockingQueue<PipelineFrame> queue, Stage next, DropPolicy policy) {
+        switch (policy) {
+            case BLOCK:
+                try {
+                    queue.put(frame);
+                    return true;
+                } catch (InterruptedException e) {
+                    recycle(frame);
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            case DROP_NEWEST:
+                if (queue.offer(frame))
+                    return true;
+                next.mDropped.incrementAndGet();
+                recycle(frame);
+                return false;
+            case DROP_OLDEST:
+            default:
+                while (!queue.offer(frame)) {
+                    PipelineFrame oldest = queue.poll();
+                    if (oldest != null) {
+                        next.mDropped.incrementAndGet();
+                        recycle(oldest);
+                    }
+                }
+                return true;
+        }
+    }
+
+    private void recycle(PipelineFrame frame) {
+        frame.mResult = null;
+        mFree.offer(frame);
+    }
+
+    private class Worker implements Runnable {
+        private final BlockingQueue<PipelineFrame> mInput;
+        private final Stage mStage;
+
+        Worker(BlockingQueue<PipelineFrame> input, Stage stage) {
+            mInput = input;
+            mStage = stage;
+        }
+
+        @Override
+        public void run() {
+            while (!mStopThreads) {
+                PipelineFrame frame;
+                try {
+                    frame = mInput.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                long start = System.nanoTime();
+                if (mStage == mConvertStage) {
+                    frame.rgba();
+                    mStage.done(start);
+                    handOff(frame, mProcessQueue, mProcessStage);
+                } else if (mStage == mProcessStage) {
+                    Mat result = mCallback.processFrame(frame);
+                    if (result != null && result != frame.rgba()) {
+                        //the listener may reuse its own Mat for the next frame, render a copy
+                        result.copyTo(frame.mDisplay);
+                        result = frame.mDisplay;
+                    }
+                    frame.mResult = result;
+                    mStage.done(start);
+                    handOff(frame, mRenderQueue, mRenderStage);
+                } else {
+                    if (frame.mResult != null)
+                        mCallback.renderFrame(frame.mResult, frame.timestamp());
+                    mStage.done(start);
+                    recycle(frame);
+                }
+            }
+            Log.d(TAG, "Finish " + mStage.getName() + " thread");
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package org.opencv.android;
+
+import java.nio.ByteBuffer;
+
+import android.annotation.TargetApi;
+import android.graphics.ImageFormat;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.view.Surface;
+
+/**
+ * YuvImageSource on top of a YUV_420_888 ImageReader. The camera writes into the surface of
+ * the reader, up to maxImages images are in flight between the camera and the consumer.
+ * The wrappers of the images are preallocated, acquiring an image does not allocate.
+ * The sensor timestamp is used as capture time only if it is in the elapsedRealtimeNanos()
+ * base, see setRealtimeTimestamps(). Otherwise the time of the acquire is used.
+ */
+@TargetApi(21)
+public class ImageReaderSource implements YuvImageSource {
+
+    private class ImageWrapper implements YuvImage {
+        private Image mImage;
+        private Image.Plane[] mPlanes;
+        private long mTimestamp;
+
+        @Override
+        public int getWidth() {
+            return mImage.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return mImage.getHeight();
+        }
+
+        @Override
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        @Override
+        public ByteBuffer getBuffer(int plane) {
+            return mPlanes[plane].getBuffer();
+        }
+
+        @Override
+        public int getRowStride(int plane) {
+            return mPlanes[plane].getRowStride();
+        }
+
+        @Override
+        public int getPixelStride(int plane) {
+            return mPlanes[plane].getPixelStride();
+        }
+
+        @Override
+        public void close() {
+            mImage.close();
+            mImage = null;
+            mPlanes = null;
+            recycle(this);
+        }
+    }
+
+    private final ImageReader mReader;
+    private final Handler mHandler;
+    private final ImageWrapper[] mFree;
+    private int mFreeCount;
+    private volatile boolean mRealtimeTimestamps;
+
+    /**
+     * @param maxImages images in flight, at least 2 so the camera can fill one while the other is read
+     * @param handler thread of the listener
+     */
+    public ImageReaderSource(int width, int height, int maxImages, Handler handler) {
+        int images = Math.max(2, maxImages);
+        mReader = ImageReader.newInstance(width, height, ImageFormat.YUV_420_888, images);
+        mFree = new ImageWrapper[images];
+        for (int i = 0; i < images; i++) {
+            mFree[mFreeCount++] = new ImageWrapper();
+        }
+        mHandler = handler;
+    }
+
+    /**
+     * @param realtime true if the sensor timestamps are in the SystemClock.elapsedRealtimeNanos()
+     *                 base, CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME
+     */
+    public void setRealtimeTimestamps(boolean realtime) {
+        mRealtimeTimestamps = realtime;
+    }
+
+    /**
+     * The camera target of the capture session
+     */
+    public Surface getSurface() {
+        return mReader.getSurface();
+    }
+
+    @Override
+    public void setListener(final Listener listener) {
+        if (listener == null) {
+            mReader.setOnImageAvailableListener(null, null);
+            return;
+        }
+        mReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+            @Override
+            public void onImageAvailable(ImageReader reader) {
+                listener.onImageAvailable(ImageReaderSource.this);
+            }
+        }, mHandler);
+    }
+
+    @Override
+    public YuvImage acquireNextImage() {
+        ImageWrapper wrapper;
+        synchronized (this) {
+            if (mFreeCount == 0)
+                return null;
+            wrapper = mFree[--mFreeCount];
+        }
+        Image image;
+        try {
+            image = mReader.acquireNextImage();
+        } catch (IllegalStateException e) {
+            // all images are held by the consumer
+            image = null;
+        }
+        if (image == null) {
+            recycle(wrapper);
+            return null;
+        }
+        wrapper.mImage = image;
+        wrapper.mPlanes = image.getPlanes();
+        wrapper.mTimestamp = mRealtimeTimestamps ? image.getTimestamp() : SystemClock.elapsedRealtimeNanos();
+        return wrapper;
+    }
+
+    private synchronized void recycle(ImageWrapper wrapper) {
+        mFree[mFreeCount++] = wrapper;
+    }
+
+    @Override
+    public void close() {
+        mReader.setOnImageAvailableListener(null, null);
+        mReader.close();
+    }
+}
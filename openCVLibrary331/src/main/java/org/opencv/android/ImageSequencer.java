@@ -0,0 +1,46 @@
+package org.opencv.android;
+
+/**
+ * Acquires the newest image of a YuvImageSource and closes the older queued ones. Every
+ * image gets the next number, so the skipped images leave gaps in the numbers.
+ * Plain Java, so it can be checked on a desktop JVM with a fake source.
+ */
+class ImageSequencer {
+    //number of the next acquired image
+    private long mNextSequence;
+    private long mSequence = -1;
+    private long mSkipped;
+
+    /**
+     * @return the newest image, the caller closes it. null if there is none.
+     */
+    YuvImage acquireNewest(YuvImageSource source) {
+        YuvImage image = source.acquireNextImage();
+        if (image == null)
+            return null;
+        long sequence = mNextSequence++;
+        YuvImage next;
+        while ((next = source.acquireNextImage()) != null) {
+            image.close();
+            mSkipped++;
+            image = next;
+            sequence = mNextSequence++;
+        }
+        mSequence = sequence;
+        return image;
+    }
+
+    /**
+     * @return number of the image returned by the last acquireNewest, -1 before the first one
+     */
+    long getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * Images closed because a newer one was queued behind them
+     */
+    long getSkipped() {
+        return mSkipped;
+    }
+}
@@ -0,0 +1,300 @@
+package org.opencv.android;
+
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.view.Surface;
+import android.view.ViewGroup.LayoutParams;
+
+import org.opencv.core.Size;
+
+/**
+ * Bridge View between OpenCV and the Camera2 API for CPU processing.
+ * The camera writes YUV_420_888 images into an ImageReader, up to setMaxImages() of them are
+ * in flight. The newest image is copied into an NV21 frame on the camera thread and closed
+ * right away, then the frame is passed to the listener and drawn, see YuvFrameDispatcher.
+ * The frames carry the sensor timestamp of the image if the camera reports it in the
+ * elapsedRealtimeNanos() base, the time of the acquire otherwise, see CvCameraViewFrame.timestamp().
+ */
+@TargetApi(21)
+public class JavaCamera2View extends CameraBridgeViewBase {
+
+    private static final String TAG = "JavaCamera2View";
+
+    private int mMaxImages = 3;
+    private String mCameraID;
+    private CameraDevice mCameraDevice;
+    private CameraCaptureSession mCaptureSession;
+    private CaptureRequest.Builder mPreviewRequestBuilder;
+    private ImageReaderSource mImageSource;
+    private YuvFrameDispatcher mDispatcher;
+
+    private HandlerThread mBackgroundThread;
+    private Handler mBackgroundHandler;
+    private final Semaphore mCameraOpenCloseLock = new Semaphore(1);
+
+    public static class Camera2SizeAccessor implements ListItemAccessor {
+
+        @Override
+        public int getWidth(Object obj) {
+            return ((android.util.Size) obj).getWidth();
+        }
+
+        @Override
+        public int getHeight(Object obj) {
+            return ((android.util.Size) obj).getHeight();
+        }
+    }
+
+    public JavaCamera2View(Context context, int cameraId) {
+        super(context, cameraId);
+    }
+
+    public JavaCamera2View(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    /**
+     * Number of images the camera may fill before the processing takes one.
+     * Takes effect at the next camera connection.
+     * @param maxImages at least 2
+     */
+    public void setMaxImages(int maxImages) {
+        mMaxImages = maxImages;
+    }
+
+    /**
+     * @return the dispatcher of the connected camera with its frame counter, or null
+     */
+    public YuvFrameDispatcher getDispatcher() {
+        return mDispatcher;
+    }
+
+    @Override
+    protected boolean connectCamera(int width, int height) {
+        Log.d(TAG, "Connecting to camera");
+        startBackgroundThread();
+        if (!initializeCamera(width, height)) {
+            stopBackgroundThread();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean initializeCamera(int width, int height) {
+        CameraManager manager = (CameraManager) getContext().getSystemService(Context.CAMERA_SERVICE);
+        try {
+            mCameraID = selectCamera(manager);
+            if (mCameraID == null) {
+                Log.e(TAG, "Camera is not available");
+                return false;
+            }
+            CameraCharacteristics characteristics = manager.getCameraCharacteristics(mCameraID);
+            StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            android.util.Size[] sizes = map.getOutputSizes(ImageFormat.YUV_420_888);
+            if (sizes == null || sizes.length == 0)
+                return false;
+
+            Size frameSize = calculateCameraFrameSize(Arrays.asList(sizes), new Camera2SizeAccessor(), width, height);
+            mFrameWidth = (int) frameSize.width;
+            mFrameHeight = (int) frameSize.height;
+            Log.d(TAG, "Set preview size to " + mFrameWidth + "x" + mFrameHeight);
+
+            if ((getLayoutParams().width == LayoutParams.MATCH_PARENT) && (getLayoutParams().height == LayoutParams.MATCH_PARENT))
+                mScale = Math.min(((float)height)/mFrameHeight, ((float)width)/mFrameWidth);
+            else
+                mScale = 0;
+
+            if (mHud != null) {
+                mHud.setResolution(mFrameWidth, mFrameHeight);
+            }
+
+            AllocateCache();
+
+            mDispatcher = new YuvFrameDispatcher(mFrameWidth, mFrameHeight, mMetrics, new YuvFrameDispatcher.Callback() {
+                @Override
+                public void onFrame(CvCameraViewFrame frame) {
+                    deliverAndDrawFrame(frame);
+                }
+            });
+            mImageSource = new ImageReaderSource(mFrameWidth, mFrameHeight, mMaxImages, mBackgroundHandler);
+            Integer timestampSource = characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+            mImageSource.setRealtimeTimestamps(timestampSource != null
+                    && timestampSource == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME);
+            mImageSource.setListener(mDispatcher);
+
+            if (!mCameraOpenCloseLock.tryAcquire(2500, TimeUnit.MILLISECONDS)) {
+                throw new RuntimeException("Time out waiting to lock camera opening.");
+            }
+            Log.i(TAG, "Opening camera: " + mCameraID);
+            manager.openCamera(mCameraID, mStateCallback, mBackgroundHandler);
+            return true;
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "initializeCamera - Camera Access Exception");
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "initializeCamera - Illegal Argument Exception");
+        } catch (SecurityException e) {
+            Log.e(TAG, "initializeCamera - Security Exception");
+        } catch (InterruptedException e) {
+            Log.e(TAG, "initializeCamera - Interrupted Exception");
+        }
+        releaseImages();
+        return false;
+    }
+
+    private String selectCamera(CameraManager manager) throws CameraAccessException {
+        String camList[] = manager.getCameraIdList();
+        if (camList.length == 0)
+            return null;
+        if (mCameraIndex == CAMERA_ID_ANY)
+            return camList[0];
+        for (String cameraID : camList) {
+            CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraID);
+            Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+            if (facing == null)
+                continue;
+            if (mCameraIndex == CAMERA_ID_BACK && facing == CameraCharacteristics.LENS_FACING_BACK ||
+                mCameraIndex == CAMERA_ID_FRONT && facing == CameraCharacteristics.LENS_FACING_FRONT)
+                return cameraID;
+        }
+        int index = mCameraIndex;
+        if (index >= 0 && index < camList.length)
+            return camList[index];
+        return null;
+    }
+
+    private final CameraDevice.StateCallback mStateCallback = new CameraDevice.StateCallback() {
+
+        @Override
+        public void onOpened(CameraDevice cameraDevice) {
+            mCameraDevice = cameraDevice;
+            mCameraOpenCloseLock.release();
+            createCaptureSession();
+        }
+
+        @Override
+        public void onDisconnected(CameraDevice cameraDevice) {
+            cameraDevice.close();
+            mCameraDevice = null;
+            mCameraOpenCloseLock.release();
+        }
+
+        @Override
+        public void onError(CameraDevice cameraDevice, int error) {
+            Log.e(TAG, "Camera error " + error);
+            cameraDevice.close();
+            mCameraDevice = null;
+            mCameraOpenCloseLock.release();
+        }
+    };
+
+    private void createCaptureSession() {
+        try {
+            mCameraOpenCloseLock.acquire();
+            if (mCameraDevice == null || mImageSource == null) {
+                mCameraOpenCloseLock.release();
+                Log.e(TAG, "createCaptureSession: camera isn't opened");
+                return;
+            }
+            Surface surface = mImageSource.getSurface();
+            mPreviewRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            mPreviewRequestBuilder.addTarget(surface);
+
+            mCameraDevice.createCaptureSession(Arrays.asList(surface),
+                    new CameraCaptureSession.StateCallback() {
+                        @Override
+                        public void onConfigured(CameraCaptureSession cameraCaptureSession) {
+                            mCaptureSession = cameraCaptureSession;
+                            try {
+                                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
+                                mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), null, mBackgroundHandler);
+                                Log.i(TAG, "Capture session has been started");
+                            } catch (CameraAccessException e) {
+                                Log.e(TAG, "createCaptureSession failed");
+                            }
+                            mCameraOpenCloseLock.release();
+                        }
+
+                        @Override
+                        public void onConfigureFailed(CameraCaptureSession cameraCaptureSession) {
+                            Log.e(TAG, "createCaptureSession failed");
+                            mCameraOpenCloseLock.release();
+                        }
+                    }, mBackgroundHandler);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "createCaptureSession - Camera Access Exception");
+            mCameraOpenCloseLock.release();
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while createCaptureSession", e);
+        }
+    }
+
+    @Override
+    protected void disconnectCamera() {
+        Log.d(TAG, "Disconnecting from camera");
+        try {
+            mCameraOpenCloseLock.acquire();
+            if (mCaptureSession != null) {
+                mCaptureSession.close();
+                mCaptureSession = null;
+            }
+            if (mCameraDevice != null) {
+                mCameraDevice.close();
+                mCameraDevice = null;
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while trying to lock camera closing.", e);
+        } finally {
+            mCameraOpenCloseLock.release();
+        }
+        // no more frames are dispatched once the camera thread is gone
+        stopBackgroundThread();
+        releaseImages();
+    }
+
+    private void releaseImages() {
+        if (mImageSource != null) {
+            mImageSource.close();
+            mImageSource = null;
+        }
+        if (mDispatcher != null) {
+            mDispatcher.release();
+            mDispatcher = null;
+        }
+    }
+
+    private void startBackgroundThread() {
+        stopBackgroundThread();
+        mBackgroundThread = new HandlerThread("JavaCamera2View");
+        mBackgroundThread.start();
+        mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
+    }
+
+    private void stopBackgroundThread() {
+        if (mBackgroundThread == null)
+            return;
+        mBackgroundThread.quitSafely();
+        try {
+            mBackgroundThread.join();
+            mBackgroundThread = null;
+            mBackgroundHandler = null;
+        } catch (InterruptedException e) {
+            Log.e(TAG, "stopBackgroundThread");
+        }
+    }
+}
@@ -8,6 +8,7 @@ import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.hardware.Camera.PreviewCallback;
 import android.os.Build;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.ViewGroup.LayoutParams;
@@ -16,7 +17,6 @@ import org.opencv.BuildConfig;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.Size;
-import org.opencv.imgproc.Imgproc;
 
 /**
  * This class is an implementation of the Bridge View between OpenCV and Java Camera.
@@ -32,17 +32,25 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
     private static final int MAGIC_TEXTURE_ID = 10;
     private static final String TAG = "JavaCameraView";
 
-    private byte mBuffer[];
-    private Mat[] mFrameChain;
-    private int mChainIdx = 0;
+    private byte[][] mBuffers;
+    private PreviewRing mRing;
+    private int mRingDepth = 2;
+    private PreviewRing.Policy mRingPolicy = PreviewRing.Policy.LATEST_WINS;
     private Thread mThread;
     private boolean mStopThread;
+    //number of the next preview frame, keeps counting across connections
+    private long mNextSequence;
 
     protected Camera mCamera;
     protected JavaCameraFrame[] mCameraFrame;
     private SurfaceTexture mSurfaceTexture;
     private int mPreviewFormat = ImageFormat.NV21;
 
+    private boolean mPipelineEnabled = false;
+    private int mPipelineDepth = 3;
+    private FramePipeline.DropPolicy mPipelineDropPolicy = FramePipeline.DropPolicy.DROP_OLDEST;
+    private FramePipeline mPipeline;
+
     public static class JavaCameraSizeAccessor implements ListItemAccessor {
 
         @Override
@@ -66,6 +74,49 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         super(context, attrs);
     }
 
+    /**
+     * Size the ring of preview frames between the camera and the processing thread.
+     * The same number of callback buffers is registered with the camera, so it does not wait
+     * for a buffer while a frame is copied. Takes effect at the next camera connection.
+     * @param depth number of preallocated frames, at least 2
+     * @param policy what to do when the processing thread is slower than the camera
+     */
+    public void setPreviewRing(int depth, PreviewRing.Policy policy) {
+        mRingDepth = depth;
+        mRingPolicy = policy;
+    }
+
+    /**
+     * @return the ring of the running camera with its frame counters, or null if the camera
+     * is not connected or the pipeline is enabled
+     */
+    public PreviewRing getPreviewRing() {
+        return mRing;
+    }
+
+    /**
+     * Run conversion, listener processing and rendering on separate threads connected by
+     * bounded queues, see FramePipeline. Takes effect at the next camera connection.
+     * @param depth number of preallocated frames, at least 2, see FramePipeline
+     * @param dropPolicy what to do when a stage is slower than the previous one
+     */
+    public void enablePipeline(int depth, FramePipeline.DropPolicy dropPolicy) {
+        mPipelineEnabled = true;
+        mPipelineDepth = depth;
+        mPipelineDropPolicy = dropPolicy;
+    }
+
+    public void disablePipeline() {
+        mPipelineEnabled = false;
+    }
+
+    /**
+     * @return the running pipeline with its per-stage counters, or null if it is disabled
+     */
+    public FramePipeline getPipeline() {
+        return mPipeline;
+    }
+
     protected boolean initializeCamera(int width, int height) {
         Log.d(TAG, "Initialize java camera");
         boolean result = true;
@@ -184,26 +235,42 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
                     else
                         mScale = 0;
 
-                    if (mFpsMeter != null) {
-                        mFpsMeter.setResolution(mFrameWidth, mFrameHeight);
+                    if (mHud != null) {
+                        mHud.setResolution(mFrameWidth, mFrameHeight);
                     }
 
                     int size = mFrameWidth * mFrameHeight;
                     size  = size * ImageFormat.getBitsPerPixel(params.getPreviewFormat()) / 8;
-                    mBuffer = new byte[size];
-
-                    mCamera.addCallbackBuffer(mBuffer);
+                    mBuffers = new byte[Math.max(2, mRingDepth)][];
+                    for (int i = 0; i < mBuffers.length; i++) {
+                        mBuffers[i] = new byte[size];
+                        mCamera.addCallbackBuffer(mBuffers[i]);
+                    }
                     mCamera.setPreviewCallbackWithBuffer(this);
 
-                    mFrameChain = new Mat[2];
-                    mFrameChain[0] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
-                    mFrameChain[1] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
-
                     AllocateCache();
 
-                    mCameraFrame = new JavaCameraFrame[2];
-                    mCameraFrame[0] = new JavaCameraFrame(mFrameChain[0], mFrameWidth, mFrameHeight);
-                    mCameraFrame[1] = new JavaCameraFrame(mFrameChain[1], mFrameWidth, mFrameHeight);
+                    if (mPipelineEnabled) {
+                        mPipeline = new FramePipeline(mFrameWidth, mFrameHeight, mPreviewFormat, mPipelineDepth, mPipelineDropPolicy, mMetrics,
+                                new FramePipeline.Callback() {
+                                    @Override
+                                    public Mat processFrame(CvCameraViewFrame frame) {
+                                        return deliverFrame(frame);
+                                    }
+
+                                    @Override
+                                    public void renderFrame(Mat frame, long timestamp) {
+                                        drawFrame(frame);
+                                        recordAge(LatencyMetrics.Stage.DISPLAY_AGE, timestamp);
+                                    }
+                                });
+                    } else {
+                        mRing = new PreviewRing(mRingDepth, mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1, mRingPolicy);
+                        mCameraFrame = new JavaCameraFrame[mRing.getDepth()];
+                        for (int i = 0; i < mCameraFrame.length; i++) {
+                            mCameraFrame[i] = new JavaCameraFrame(mRing.get(i), mFrameWidth, mFrameHeight);
+                        }
+                    }
 
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
                         mSurfaceTexture = new SurfaceTexture(MAGIC_TEXTURE_ID);
@@ -235,19 +302,24 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
                 mCamera.release();
             }
             mCamera = null;
-            if (mFrameChain != null) {
-                mFrameChain[0].release();
-                mFrameChain[1].release();
-            }
+            mBuffers = null;
             if (mCameraFrame != null) {
-                mCameraFrame[0].release();
-                mCameraFrame[1].release();
+                for (JavaCameraFrame frame : mCameraFrame) {
+                    frame.release();
+                }
+                mCameraFrame = null;
+            }
+            if (mRing != null) {
+                mRing.release();
+                mRing = null;
+            }
+            if (mPipeline != null) {
+                mPipeline.release();
+                mPipeline = null;
             }
         }
     }
 
-    private boolean mCameraFrameReady = false;
-
     @Override
     protected boolean connectCamera(int width, int height) {
 
@@ -259,7 +331,11 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         if (!initializeCamera(width, height))
             return false;
 
-        mCameraFrameReady = false;
+        if (mPipeline != null) {
+            Log.d(TAG, "Starting pipeline threads");
+            mPipeline.start();
+            return true;
+        }
 
         /* now we can start update thread */
         Log.d(TAG, "Starting processing thread");
@@ -279,9 +355,8 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         try {
             mStopThread = true;
             Log.d(TAG, "Notify thread");
-            synchronized (this) {
-                this.notify();
-            }
+            if (mRing != null)
+                mRing.stop();
             Log.d(TAG, "Waiting for thread");
             if (mThread != null)
                 mThread.join();
@@ -290,60 +365,34 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         } finally {
             mThread =  null;
         }
+        if (mPipeline != null)
+            mPipeline.stop();
 
         /* Now release camera */
         releaseCamera();
-
-        mCameraFrameReady = false;
     }
 
     @Override
     public void onPreviewFrame(byte[] frame, Camera arg1) {
         if (BuildConfig.DEBUG)
             Log.d(TAG, "Preview Frame received. Frame size: " + frame.length);
-        synchronized (this) {
-            mFrameChain[mChainIdx].put(0, 0, frame);
-            mCameraFrameReady = true;
-            this.notify();
-        }
+        long timestamp = SystemClock.elapsedRealtimeNanos();
+        long sequence = mNextSequence++;
+        long start = System.nanoTime();
+        if (mPipeline != null)
+            mPipeline.offer(frame, timestamp, sequence);
+        else if (mRing != null)
+            mRing.put(frame, timestamp, sequence);
+        mMetrics.stop(LatencyMetrics.Stage.CAPTURE, start);
+        // the frame is copied, the camera can fill this buffer again
         if (mCamera != null)
-            mCamera.addCallbackBuffer(mBuffer);
+            mCamera.addCallbackBuffer(frame);
     }
 
-    private class JavaCameraFrame implements CvCameraViewFrame {
-        @Override
-        public Mat gray() {
-            return mYuvFrameData.submat(0, mHeight, 0, mWidth);
-        }
-
-        @Override
-        public Mat rgba() {
-            if (mPreviewFormat == ImageFormat.NV21)
-                Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
-            else if (mPreviewFormat == ImageFormat.YV12)
-                Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGB_I420, 4);  // COLOR_YUV2RGBA_YV12 produces inverted colors
-            else
-                throw new IllegalArgumentException("Preview Format can be NV21 or YV12");
-
-            return mRgba;
-        }
-
+    private class JavaCameraFrame extends CachedCameraFrame {
         public JavaCameraFrame(Mat Yuv420sp, int width, int height) {
-            super();
-            mWidth = width;
-            mHeight = height;
-            mYuvFrameData = Yuv420sp;
-            mRgba = new Mat();
+            super(Yuv420sp, width, height, mPreviewFormat, mMetrics);
         }
-
-        public void release() {
-            mRgba.release();
-        }
-
-        private Mat mYuvFrameData;
-        private Mat mRgba;
-        private int mWidth;
-        private int mHeight;
     };
 
     private class CameraWorker implements Runnable {
@@ -351,27 +400,22 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         @Override
         public void run() {
             do {
-                boolean hasFrame = false;
-                synchronized (JavaCameraView.this) {
-                    try {
-                        while (!mCameraFrameReady && !mStopThread) {
-                            JavaCameraView.this.wait();
-                        }
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                    if (mCameraFrameReady)
-                    {
-                        mChainIdx = 1 - mChainIdx;
-                        mCameraFrameReady = false;
-                        hasFrame = true;
-                    }
+                int index;
+                try {
+                    index = mRing.take();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                    break;
                 }
+                if (index < 0)
+                    break;
 
-                if (!mStopThread && hasFrame) {
-                    if (!mFrameChain[1 - mChainIdx].empty())
-                        deliverAndDrawFrame(mCameraFrame[1 - mChainIdx]);
+                if (!mStopThread) {
+                    // a new frame was captured into this buffer
+                    mCameraFrame[index].onCaptured(mRing.getTimestamp(index), mRing.getSequence(index));
+                    deliverAndDrawFrame(mCameraFrame[index]);
                 }
+                mRing.recycle(index);
             } while (!mStopThread);
             Log.d(TAG, "Finish processing thread");
         }
@@ -0,0 +1,282 @@
+package org.opencv.android;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms of the stages of a frame. Plain Java, so the tracking engine can record
+ * into it on a desktop JVM too. Recording does not allocate and does not lock, stages may be
+ * recorded from several threads at once:
+ *
+ *     long start = System.nanoTime();
+ *     ...
+ *     metrics.stop(LatencyMetrics.Stage.THRESHOLD, start);
+ *
+ * The histograms are log-linear like HdrHistogram: every power of two is split into 16
+ * buckets, so a percentile is at most 1/16 above the recorded value.
+ *
+ * Besides the stage durations, the ages of the results and of the displayed frames since the
+ * capture are recorded, and the frame numbers of the delivered frames are checked for gaps.
+ *
+ * The records add up until drainTo() moves them into another instance, e.g. every refresh of
+ * the HUD, so a live readout shows the last interval instead of the whole session.
+ */
+public class LatencyMetrics {
+
+    /**
+     * Stages in frame order
+     */
+    public enum Stage {
+        //copy of the camera buffer into the frame
+        CAPTURE("capture"),
+        //YUV to RGBA conversion
+        YUV_CONVERSION("yuv"),
+        //RGB to HSV conversion, full frame and search windows
+        HSV_CONVERSION("hsv"),
+        //color classification into the object masks
+        THRESHOLD("threshold"),
+        //erode and dilate of the masks
+        MORPHOLOGY("morphology"),
+        //contours or connected components of the masks
+        CONTOURS("contours"),
+        //annotations of the results
+        DRAWING("drawing"),
+        //the whole onCameraFrame of the listener
+        PROCESS("process"),
+        //matToBitmap of the displayed frame
+        BITMAP_UPLOAD("bitmap"),
+        //lockCanvas, drawBitmap and unlockCanvasAndPost
+        CANVAS_POST("canvas"),
+        //age of the detections when onCameraFrame returns, measured from the capture
+        RESULT_AGE("result age"),
+        //age of the frame when it was posted to the screen, measured from the capture
+        DISPLAY_AGE("display age");
+
+        private final String mLabel;
+
+        Stage(String label) {
+            mLabel = label;
+        }
+
+        public String getLabel() {
+            return mLabel;
+        }
+    }
+
+    /**
+     * Latency distribution of one stage, in nanoseconds
+     */
+    public static class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        //values up to 2^40 ns (18 minutes), longer ones are counted in the last bucket
+        private static final int MAX_EXPONENT = 40;
+        private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BITS + 1) * SUB_BUCKETS;
+
+        private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        public void record(long nanos) {
+            long value = Math.max(0, nanos);
+            mCounts.incrementAndGet(bucket(value));
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+            long max = mMax.get();
+            while (value > max && !mMax.compareAndSet(max, value)) {
+                max = mMax.get();
+            }
+        }
+
+        static int bucket(long value) {
+            if (value < SUB_BUCKETS)
+                return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            if (exponent > MAX_EXPONENT)
+                return BUCKETS - 1;
+            int shift = exponent - SUB_BITS;
+            int sub = (int) (value >>> shift) - SUB_BUCKETS;
+            return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+        }
+
+        //largest value that falls into the bucket
+        static long highestValue(int bucket) {
+            if (bucket < SUB_BUCKETS)
+                return bucket;
+            int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+            int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        public long getMax() {
+            return mMax.get();
+        }
+
+        public double getMean() {
+            long count = mCount.get();
+            return count == 0 ? 0 : (double) mSum.get() / count;
+        }
+
+        /**
+         * @param percentile 0..100, e.g. 99 for p99
+         * @return the latency not exceeded by the given share of the records, 0 if there are none
+         */
+        public long getPercentile(double percentile) {
+            long count = mCount.get();
+            if (count == 0)
+                return 0;
+            long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mCounts.get(i);
+                if (seen >= target)
+                    return Math.min(highestValue(i), mMax.get());
+            }
+            return mMax.get();
+        }
+
+        /**
+         * Move the records into target, replacing its records, and start over. Does not
+         * allocate. A record made during the move may land in either histogram, its count
+         * and its bucket possibly in different ones.
+         */
+        public void drainTo(Histogram target) {
+            for (int i = 0; i < BUCKETS; i++) {
+                target.mCounts.set(i, mCounts.getAndSet(i, 0));
+            }
+            target.mCount.set(mCount.getAndSet(0));
+            target.mSum.set(mSum.getAndSet(0));
+            target.mMax.set(mMax.getAndSet(0));
+        }
+
+        /**
+         * Clear the records. Records made during the reset may be partly lost.
+         */
+        public void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                mCounts.set(i, 0);
+            }
+            mCount.set(0);
+            mSum.set(0);
+            mMax.set(0);
+        }
+    }
+
+    private final Histogram[] mHistograms = new Histogram[Stage.values().length];
+    //frame numbers of the delivered frames, -1 before the first one
+    private final AtomicLong mLastSequence = new AtomicLong(-1);
+    private final AtomicLong mFrames = new AtomicLong();
+    private final AtomicLong mSequenceGaps = new AtomicLong();
+    private final AtomicLong mSkippedFrames = new AtomicLong();
+
+    public LatencyMetrics() {
+        for (int i = 0; i < mHistograms.length; i++) {
+            mHistograms[i] = new Histogram();
+        }
+    }
+
+    public Histogram get(Stage stage) {
+        return mHistograms[stage.ordinal()];
+    }
+
+    /**
+     * Record the time since startNanos, taken with System.nanoTime()
+     */
+    public void stop(Stage stage, long startNanos) {
+        mHistograms[stage.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Record a value measured elsewhere, e.g. an age
+     */
+    public void record(Stage stage, long nanos) {
+        mHistograms[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Count a delivered frame. A frame number that is not the next one after the previous
+     * frame counts as a gap, the missing numbers as skipped frames. Numbers going back, e.g.
+     * after a reconnect of the camera, restart the check.
+     * @param sequence CvCameraViewFrame.sequence() of the frame
+     */
+    public void recordSequence(long sequence) {
+        mFrames.incrementAndGet();
+        long last = mLastSequence.getAndSet(sequence);
+        if (last >= 0 && sequence > last + 1) {
+            mSequenceGaps.incrementAndGet();
+            mSkippedFrames.addAndGet(sequence - last - 1);
+        }
+    }
+
+    /**
+     * Frames counted by recordSequence()
+     */
+    public long getFrames() {
+        return mFrames.get();
+    }
+
+    /**
+     * Times one or more frames were missing between two delivered frames
+     */
+    public long getSequenceGaps() {
+        return mSequenceGaps.get();
+    }
+
+    /**
+     * Frames captured but never delivered, they were overwritten or dropped on the way
+     */
+    public long getSkippedFrames() {
+        return mSkippedFrames.get();
+    }
+
+    /**
+     * Move the records of the interval since the last drain into target, replacing its records,
+     * and start a new interval. The frame number check goes on across the intervals.
+     * @param target e.g. the snapshot of a HUD, read on the thread that drains
+     */
+    public void drainTo(LatencyMetrics target) {
+        for (int i = 0; i < mHistograms.length; i++) {
+            mHistograms[i].drainTo(target.mHistograms[i]);
+        }
+        target.mFrames.set(mFrames.getAndSet(0));
+        target.mSequenceGaps.set(mSequenceGaps.getAndSet(0));
+        target.mSkippedFrames.set(mSkippedFrames.getAndSet(0));
+    }
+
+    public void reset() {
+        for (Histogram histogram : mHistograms) {
+            histogram.reset();
+        }
+        mLastSequence.set(-1);
+        mFrames.set(0);
+        mSequenceGaps.set(0);
+        mSkippedFrames.set(0);
+    }
+
+    /**
+     * One line per recorded stage with p50/p95/p99/max in milliseconds, e.g. for the log
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            Histogram h = get(stage);
+            if (h.getCount() == 0)
+                continue;
+            sb.append(stage.getLabel()).append(" n=").append(h.getCount())
+                    .append(" p50=").append(h.getPercentile(50) / 1e6)
+                    .append(" p95=").append(h.getPercentile(95) / 1e6)
+                    .append(" p99=").append(h.getPercentile(99) / 1e6)
+                    .append(" max=").append(h.getMax() / 1e6).append(" ms\n");
+        }
+        if (getFrames() > 0)
+            sb.append("frames=").append(getFrames()).append(" gaps=").append(getSequenceGaps())
+                    .append(" skipped=").append(getSkippedFrames()).append('\n');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,105 @@
+package org.opencv.android;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+/**
+ * Draws the frame rate, the p50/p95/p99/max latencies of the recorded stages and the skipped
+ * frames on the canvas.
+ * The text is rebuilt every REFRESH_NANOS only, in reused buffers, so drawing it per frame
+ * neither allocates nor logs. Every rebuild drains the metrics, so the text shows the last
+ * REFRESH_NANOS, and a stall is gone from the readout once it is over.
+ */
+public class MetricsHud {
+    private static final long REFRESH_NANOS = 500000000L;
+    private static final float LINE_HEIGHT = 24;
+
+    private final Paint mPaint = new Paint();
+    private final LatencyMetrics.Stage[] mStages = LatencyMetrics.Stage.values();
+    //records of the last interval, drained from the metrics at every refresh
+    private final LatencyMetrics mInterval = new LatencyMetrics();
+    private final StringBuilder[] mLines = new StringBuilder[mStages.length + 2];
+    private int mLineCount;
+    private int mWidth;
+    private int mHeight;
+    private long mFrames;
+    private long mRefreshNanos;
+
+    public MetricsHud() {
+        mPaint.setColor(Color.BLUE);
+        mPaint.setTextSize(20);
+        for (int i = 0; i < mLines.length; i++) {
+            mLines[i] = new StringBuilder();
+        }
+    }
+
+    public void setResolution(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * Count a drawn frame and draw the HUD
+     */
+    public void draw(Canvas canvas, LatencyMetrics metrics, float offsetx, float offsety) {
+        mFrames++;
+        long now = System.nanoTime();
+        if (mRefreshNanos == 0) {
+            //the first interval starts with the first drawn frame
+            metrics.drainTo(mInterval);
+            mRefreshNanos = now;
+            mFrames = 0;
+        } else if (now - mRefreshNanos >= REFRESH_NANOS) {
+            metrics.drainTo(mInterval);
+            refresh(mInterval, mFrames * 1e9 / (now - mRefreshNanos));
+            mRefreshNanos = now;
+            mFrames = 0;
+        }
+        for (int i = 0; i < mLineCount; i++) {
+            canvas.drawText(mLines[i], 0, mLines[i].length(), offsetx, offsety + i * LINE_HEIGHT, mPaint);
+        }
+    }
+
+    private void refresh(LatencyMetrics metrics, double fps) {
+        StringBuilder line = mLines[0];
+        line.setLength(0);
+        appendFixed(line, fps);
+        line.append(" FPS");
+        if (mWidth != 0 && mHeight != 0)
+            line.append('@').append(mWidth).append('x').append(mHeight);
+        mLineCount = 1;
+        for (LatencyMetrics.Stage stage : mStages) {
+            LatencyMetrics.Histogram h = metrics.get(stage);
+            if (h.getCount() == 0)
+                continue;
+            line = mLines[mLineCount++];
+            line.setLength(0);
+            line.append(stage.getLabel()).append(' ');
+            appendFixed(line, h.getPercentile(50) / 1e6);
+            line.append(" / ");
+            appendFixed(line, h.getPercentile(95) / 1e6);
+            line.append(" / ");
+            appendFixed(line, h.getPercentile(99) / 1e6);
+            line.append(" / ");
+            appendFixed(line, h.getMax() / 1e6);
+            line.append(" ms");
+        }
+        if (metrics.getFrames() > 0) {
+            line = mLines[mLineCount++];
+            line.setLength(0);
+            line.append("skipped ").append(metrics.getSkippedFrames())
+                    .append(" in ").append(metrics.getSequenceGaps()).append(" gaps");
+        }
+    }
+
+    //two decimals without a formatter
+    private static void appendFixed(StringBuilder sb, double value) {
+        long hundredths = Math.round(value * 100);
+        sb.append(hundredths / 100).append('.');
+        long fraction = hundredths % 100;
+        if (fraction < 10)
+            sb.append('0');
+        sb.append(fraction);
+    }
+}
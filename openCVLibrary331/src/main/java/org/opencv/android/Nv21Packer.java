@@ -0,0 +1,73 @@
+package org.opencv.android;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Packs the planes of a YUV_420_888 image into NV21 layout in a preallocated array.
+ * Plain Java, so the packing can be checked on a desktop JVM with fake images.
+ */
+class Nv21Packer {
+    private final int mWidth;
+    private final int mHeight;
+    private final byte[] mData;
+    private final byte[] mChromaRow;
+
+    /**
+     * @param height even
+     */
+    Nv21Packer(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mData = new byte[width * (height + (height / 2))];
+        mChromaRow = new byte[width];
+    }
+
+    /**
+     * @return the NV21 bytes of the last packed image, width * height * 3 / 2
+     */
+    byte[] getData() {
+        return mData;
+    }
+
+    void pack(YuvImage image) {
+        if (image.getWidth() != mWidth || image.getHeight() != mHeight)
+            throw new IllegalArgumentException("Image is " + image.getWidth() + "x" + image.getHeight()
+                    + ", frame is " + mWidth + "x" + mHeight);
+
+        ByteBuffer y = image.getBuffer(0);
+        int yStride = image.getRowStride(0);
+        if (yStride == mWidth) {
+            y.position(0);
+            y.get(mData, 0, mWidth * mHeight);
+        } else {
+            for (int row = 0; row < mHeight; row++) {
+                y.position(row * yStride);
+                y.get(mData, row * mWidth, mWidth);
+            }
+        }
+
+        ByteBuffer u = image.getBuffer(1);
+        ByteBuffer v = image.getBuffer(2);
+        int uvStride = image.getRowStride(1);
+        int pixelStride = image.getPixelStride(1);
+        int offset = mWidth * mHeight;
+        for (int row = 0; row < mHeight / 2; row++, offset += mWidth) {
+            int start = row * uvStride;
+            if (pixelStride == 2) {
+                // semi-planar: V lands on the even bytes with one bulk copy, then U on the odd ones.
+                // The planes share one VU buffer that ends on the last V, so width - 1 bytes are read.
+                v.position(start);
+                v.get(mData, offset, mWidth - 1);
+                u.position(start);
+                u.get(mChromaRow, 0, mWidth - 1);
+                for (int col = 1; col < mWidth; col += 2)
+                    mData[offset + col] = mChromaRow[col - 1];
+            } else {
+                for (int col = 0; col < mWidth / 2; col++) {
+                    mData[offset + 2 * col] = v.get(start + col * pixelStride);
+                    mData[offset + 2 * col + 1] = u.get(start + col * pixelStride);
+                }
+            }
+        }
+    }
+}
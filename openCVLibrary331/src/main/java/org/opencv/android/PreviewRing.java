@@ -0,0 +1,215 @@
+package org.opencv.android;
+
+import org.opencv.core.Mat;
+
+/**
+ * Ring of preallocated preview frames between the camera callback and the frame worker.
+ * The camera callback never blocks: a full ring either overwrites the oldest queued frame or
+ * drops the new one, depending on the policy. Every captured frame ends up in exactly one
+ * counter, captured = delivered + overwritten + dropped + queued.
+ */
+public class PreviewRing {
+
+    /**
+     * What to do when the worker is slower than the camera
+     */
+    public enum Policy {
+        //the worker gets the newest frame, older queued frames are overwritten
+        LATEST_WINS,
+        //the worker gets the frames in capture order, new frames are dropped when the ring is full
+        FIFO
+    }
+
+    private final Mat[] mFrames;
+    //capture time and number of the frames
+    private final long[] mTimestamps;
+    private final long[] mSequences;
+    private final Policy mPolicy;
+    //indices of the frames that are neither queued nor used by the worker
+    private final int[] mFree;
+    private int mFreeCount;
+    //queued frames in capture order
+    private final int[] mQueue;
+    private int mQueueHead;
+    private int mQueueCount;
+    private boolean mStopped;
+
+    private long mCaptured;
+    private long mDelivered;
+    private long mOverwritten;
+    private long mDropped;
+
+    /**
+     * @param depth number of preallocated frames, at least 2
+     * @param rows rows of a frame buffer
+     * @param cols cols of a frame buffer
+     * @param type type of a frame buffer
+     * @param policy what to do when the ring is full
+     */
+    public PreviewRing(int depth, int rows, int cols, int type, Policy policy) {
+        int frames = Math.max(2, depth);
+        mPolicy = policy;
+        mFrames = new Mat[frames];
+        mTimestamps = new long[frames];
+        mSequences = new long[frames];
+        mFree = new int[frames];
+        mQueue = new int[frames];
+        for (int i = 0; i < frames; i++) {
+            mFrames[i] = new Mat(rows, cols, type);
+            mFree[mFreeCount++] = i;
+        }
+    }
+
+    public int getDepth() {
+        return mFrames.length;
+    }
+
+    public Policy getPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * @return the buffer of a frame index returned by take()
+     */
+    public Mat get(int index) {
+        return mFrames[index];
+    }
+
+    /**
+     * @return the capture time given to put() for a frame index returned by take()
+     */
+    public long getTimestamp(int index) {
+        return mTimestamps[index];
+    }
+
+    /**
+     * @return the frame number given to put() for a frame index returned by take()
+     */
+    public long getSequence(int index) {
+        return mSequences[index];
+    }
+
+    /**
+     * Copy a preview buffer into the ring, called from the camera callback. Never blocks.
+     * @param timestamp capture time of the buffer
+     * @param sequence number of the buffer in capture order
+     * @return false if the frame was dropped
+     */
+    public boolean put(byte[] data, long timestamp, long sequence) {
+        int index;
+        synchronized (this) {
+            mCaptured++;
+            if (mFreeCount > 0) {
+                index = mFree[--mFreeCount];
+            } else if (mPolicy == Policy.LATEST_WINS && mQueueCount > 0) {
+                index = pollOldest();
+                mOverwritten++;
+            } else {
+                mDropped++;
+                return false;
+            }
+        }
+        mFrames[index].put(0, 0, data);
+        mTimestamps[index] = timestamp;
+        mSequences[index] = sequence;
+        synchronized (this) {
+            mQueue[(mQueueHead + mQueueCount) % mQueue.length] = index;
+            mQueueCount++;
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Wait for the next frame. The frame belongs to the caller until recycle().
+     * @return the frame index, or -1 if the ring was stopped
+     */
+    public synchronized int take() throws InterruptedException {
+        while (mQueueCount == 0 && !mStopped) {
+            wait();
+        }
+        if (mStopped)
+            return -1;
+        if (mPolicy == Policy.LATEST_WINS) {
+            while (mQueueCount > 1) {
+                mFree[mFreeCount++] = pollOldest();
+                mOverwritten++;
+            }
+        }
+        mDelivered++;
+        return pollOldest();
+    }
+
+    /**
+     * Give back a frame returned by take()
+     */
+    public synchronized void recycle(int index) {
+        mFree[mFreeCount++] = index;
+    }
+
+    /**
+     * Wake up the worker, take() returns -1 from now on
+     */
+    public synchronized void stop() {
+        mStopped = true;
+        notifyAll();
+    }
+
+    /**
+     * Release the native buffers, call it after the worker finished
+     */
+    public void release() {
+        for (Mat frame : mFrames) {
+            frame.release();
+        }
+    }
+
+    private int pollOldest() {
+        int index = mQueue[mQueueHead];
+        mQueueHead = (mQueueHead + 1) % mQueue.length;
+        mQueueCount--;
+        return index;
+    }
+
+    /**
+     * Frames received from the camera
+     */
+    public synchronized long getCaptured() {
+        return mCaptured;
+    }
+
+    /**
+     * Frames handed to the worker
+     */
+    public synchronized long getDelivered() {
+        return mDelivered;
+    }
+
+    /**
+     * Queued frames replaced by a newer one before the worker took them, LATEST_WINS only
+     */
+    public synchronized long getOverwritten() {
+        return mOverwritten;
+    }
+
+    /**
+     * Frames discarded because the ring was full, FIFO only
+     */
+    public synchronized long getDropped() {
+        return mDropped;
+    }
+
+    /**
+     * Frames waiting for the worker
+     */
+    public synchronized int getQueued() {
+        return mQueueCount;
+    }
+
+    public synchronized void reset() {
+        mCaptured = 0;
+        mDelivered = 0;
+        mOverwritten = 0;
+        mDropped = 0;
+    }
+}
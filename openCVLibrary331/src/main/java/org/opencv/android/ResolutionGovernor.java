@@ -0,0 +1,157 @@
+package org.opencv.android;
+
+/**
+ * Steps the resolution of the processed frames down when the frames take longer than the
+ * frame budget, and back up when they fit well within it. Each level halves the frame width
+ * and height, so it cuts the pixels, and roughly the processing time, to a quarter.
+ *
+ * The processing times are averaged over a window of frames. The level goes down when the
+ * average is above the budget and up when it is below upShare of the budget. The default
+ * upShare of 0.2 leaves room for the 4 times longer frames of the higher level, so a change
+ * does not undo itself at the next window.
+ *
+ * CameraBridgeViewBase applies the level by reconnecting the camera with a smaller preview
+ * size. The part of the level the camera cannot apply, because it has no smaller preview
+ * size or setReconnect(false) was called, is left to the listener as a pyramid level, see
+ * getPyramidLevel(). Area thresholds tuned at level 0 are to be scaled by getAreaScale().
+ */
+public class ResolutionGovernor {
+    private static final int DEFAULT_WINDOW = 30;
+    private static final double DEFAULT_UP_SHARE = 0.2;
+
+    private final long mBudgetNanos;
+    private final int mMaxLevel;
+    private double mUpShare = DEFAULT_UP_SHARE;
+    private int mWindow = DEFAULT_WINDOW;
+    private boolean mReconnect = true;
+
+    private int mLevel;
+    //width of the camera frames relative to the frames at level 0
+    private double mCameraScale = 1;
+    private long mWindowSum;
+    private int mWindowCount;
+    private long mChanges;
+
+    /**
+     * @param budgetNanos processing time of a frame to stay within, e.g. 66 ms for 15 fps
+     * @param maxLevel lowest resolution, the frames are at most 2^maxLevel times smaller
+     */
+    public ResolutionGovernor(long budgetNanos, int maxLevel) {
+        mBudgetNanos = budgetNanos;
+        mMaxLevel = maxLevel;
+    }
+
+    public long getBudgetNanos() {
+        return mBudgetNanos;
+    }
+
+    public int getMaxLevel() {
+        return mMaxLevel;
+    }
+
+    /**
+     * @param upShare step up when the average is below this share of the budget, 0..1
+     */
+    public synchronized void setUpShare(double upShare) {
+        mUpShare = upShare;
+    }
+
+    /**
+     * @param frames number of frames averaged before a decision
+     */
+    public synchronized void setWindow(int frames) {
+        mWindow = Math.max(1, frames);
+    }
+
+    /**
+     * @param reconnect false to keep the camera resolution and apply every level as a pyramid level
+     */
+    public synchronized void setReconnect(boolean reconnect) {
+        mReconnect = reconnect;
+    }
+
+    public synchronized boolean isReconnect() {
+        return mReconnect;
+    }
+
+    /**
+     * Record the processing time of a frame
+     * @return true if the level changed
+     */
+    public synchronized boolean record(long nanos) {
+        mWindowSum += nanos;
+        mWindowCount++;
+        if (mWindowCount < mWindow)
+            return false;
+        long mean = mWindowSum / mWindowCount;
+        mWindowSum = 0;
+        mWindowCount = 0;
+        int level = mLevel;
+        if (mean > mBudgetNanos && level < mMaxLevel)
+            level++;
+        else if (mean < mBudgetNanos * mUpShare && level > 0)
+            level--;
+        if (level == mLevel)
+            return false;
+        mLevel = level;
+        mChanges++;
+        return true;
+    }
+
+    /**
+     * @return the current level, 0 is the full resolution
+     */
+    public synchronized int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * @return the level to be applied by the camera resolution
+     */
+    public synchronized int getCameraLevel() {
+        return mReconnect ? mLevel : 0;
+    }
+
+    /**
+     * Set by the camera view after a connection, the frames of the new resolution start a new window
+     * @param scale width of the camera frames relative to the frames at level 0
+     */
+    synchronized void setCameraScale(double scale) {
+        mCameraScale = scale;
+        mWindowSum = 0;
+        mWindowCount = 0;
+    }
+
+    /**
+     * @return the rest of the level the camera resolution does not apply
+     */
+    public synchronized int getPyramidLevel() {
+        int cameraLevel = (int) Math.round(Math.log(1 / mCameraScale) / Math.log(2));
+        return Math.max(0, mLevel - Math.max(0, cameraLevel));
+    }
+
+    /**
+     * @return factor of the areas in the camera frames to the same areas at level 0
+     */
+    public synchronized double getAreaScale() {
+        return mCameraScale * mCameraScale;
+    }
+
+    /**
+     * Level changes since the start, e.g. for the log
+     */
+    public synchronized long getChanges() {
+        return mChanges;
+    }
+
+    /**
+     * Back to level 0, call it before the first connection of the camera
+     */
+    public synchronized void reset() {
+        mLevel = 0;
+        mCameraScale = 1;
+        mWindowSum = 0;
+        mWindowCount = 0;
+        mChanges = 0;
+    }
+}
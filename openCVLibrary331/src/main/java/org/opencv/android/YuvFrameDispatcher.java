@@ -0,0 +1,73 @@
+package org.opencv.android;
+
+import org.opencv.android.CameraBridgeViewBase.CvCameraViewFrame;
+
+/**
+ * Turns the images of a YuvImageSource into camera frames on the thread of the source:
+ * acquires the newest image, copies it into the frame, gives the image back right away and
+ * hands the frame to the callback. While the callback runs, the source can fill its other
+ * images. Every image gets the next frame number, so the images skipped for a newer one show
+ * up as gaps in CvCameraViewFrame.sequence(). Needs no camera, so it can be driven by a fake
+ * source.
+ */
+public class YuvFrameDispatcher implements YuvImageSource.Listener {
+
+    public interface Callback {
+        /**
+         * Called for every dispatched frame, the frame is valid until the call returns
+         */
+        public void onFrame(CvCameraViewFrame frame);
+    }
+
+    private final YuvImageFrame mFrame;
+    private final LatencyMetrics mMetrics;
+    private final Callback mCallback;
+    private final ImageSequencer mSequencer = new ImageSequencer();
+    private long mDispatched;
+
+    /**
+     * @param width width of the images
+     * @param height height of the images, even
+     * @param metrics records the copies of the images and the conversions of the frame
+     */
+    public YuvFrameDispatcher(int width, int height, LatencyMetrics metrics, Callback callback) {
+        mFrame = new YuvImageFrame(width, height, metrics);
+        mMetrics = metrics;
+        mCallback = callback;
+    }
+
+    @Override
+    public void onImageAvailable(YuvImageSource source) {
+        // skip to the newest image, the skipped ones keep their numbers
+        YuvImage image = mSequencer.acquireNewest(source);
+        if (image == null)
+            return;
+        long start = System.nanoTime();
+        try {
+            mFrame.fill(image, mSequencer.getSequence());
+        } finally {
+            image.close();
+        }
+        mMetrics.stop(LatencyMetrics.Stage.CAPTURE, start);
+        mDispatched++;
+        mCallback.onFrame(mFrame);
+    }
+
+    /**
+     * Frames handed to the callback, skipped images are not counted
+     */
+    public long getDispatched() {
+        return mDispatched;
+    }
+
+    /**
+     * Images closed without dispatch because a newer one was queued
+     */
+    public long getSkipped() {
+        return mSequencer.getSkipped();
+    }
+
+    public void release() {
+        mFrame.release();
+    }
+}
@@ -0,0 +1,33 @@
+package org.opencv.android;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One YUV_420_888 image: a full resolution Y plane (0) and quarter resolution U (1) and
+ * V (2) planes with any row and pixel stride. Implemented by ImageReaderSource on top of
+ * android.media.Image, and by fakes that feed JavaCamera2View frames without a camera.
+ */
+public interface YuvImage {
+    public int getWidth();
+
+    public int getHeight();
+
+    /**
+     * Capture time in nanoseconds, in the base of SystemClock.elapsedRealtimeNanos()
+     */
+    public long getTimestamp();
+
+    /**
+     * Pixels of a plane, starting at index 0. The consumer may move its position.
+     */
+    public ByteBuffer getBuffer(int plane);
+
+    public int getRowStride(int plane);
+
+    public int getPixelStride(int plane);
+
+    /**
+     * Give the image back to its source
+     */
+    public void close();
+}
@@ -0,0 +1,37 @@
+package org.opencv.android;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import android.graphics.ImageFormat;
+
+/**
+ * Camera frame filled from a YUV_420_888 image. The planes are packed into NV21 layout, so
+ * the frame works with every NV21 consumer. The 3.3.1 Java bindings cannot wrap a ByteBuffer
+ * in a Mat, so the planes are bulk copied into a preallocated array, see Nv21Packer, and put
+ * in one call.
+ */
+class YuvImageFrame extends CachedCameraFrame {
+    private final Nv21Packer mPacker;
+
+    YuvImageFrame(int width, int height, LatencyMetrics metrics) {
+        super(new Mat(height + (height / 2), width, CvType.CV_8UC1), width, height, ImageFormat.NV21, metrics);
+        mPacker = new Nv21Packer(width, height);
+    }
+
+    /**
+     * Copy the image into the frame and forget the derived images of the previous one
+     * @param sequence number of the image in capture order
+     */
+    synchronized void fill(YuvImage image, long sequence) {
+        mPacker.pack(image);
+        mYuvFrameData.put(0, 0, mPacker.getData());
+        onCaptured(image.getTimestamp(), sequence);
+    }
+
+    @Override
+    synchronized void release() {
+        super.release();
+        mYuvFrameData.release();
+    }
+}
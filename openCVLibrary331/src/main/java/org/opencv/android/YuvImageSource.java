@@ -0,0 +1,28 @@
+package org.opencv.android;
+
+/**
+ * Source of YUV_420_888 images with an ImageReader-like interface. The source may hold
+ * several images in flight, the consumer closes every image it acquired. Every captured
+ * image is acquired once, so the consumer can count the images it skips.
+ */
+public interface YuvImageSource {
+
+    public interface Listener {
+        /**
+         * Called on the thread of the source when a new image can be acquired
+         */
+        public void onImageAvailable(YuvImageSource source);
+    }
+
+    public void setListener(Listener listener);
+
+    /**
+     * @return the oldest queued image, null if there is none or the consumer holds too many
+     */
+    public YuvImage acquireNextImage();
+
+    /**
+     * Stop producing images and release them
+     */
+    public void close();
+}
@@ -0,0 +1,60 @@
+/*
+    RobotCar.Devel.Tracking
+    Color based tracking of multiple objects with OpenCV on Android.
+    Copyright (C) 2018  Barnabás Nagy - otapiGems.com - otapiGems@protonmail.ch
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.otapigems.robotcar.devel.tracking;
+
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Draws the detections on the camera frame. Plain OpenCV, so the overlay can be benchmarked
+ * without Android.
+ */
+class Annotations {
+
+    static String intToString(int number){
+        return Integer.toString(number);
+    }
+
+    /**
+     * Draw detection i of the buffer
+     * @param name name of the detected object
+     */
+    static void drawObject(Detections detections, int i, String name, Mat frame, List<MatOfPoint> contours, Mat hierarchy){
+        //Scalar color = obj.getColor();
+        Scalar color = new Scalar(255, 255, 255);
+        int x = detections.getX(i);
+        int y = detections.getY(i);
+        int hierarchyIndex = detections.getHierarchyIndex(i);
+
+        //no contour when the blob was found by connected components without contours
+        if (hierarchyIndex >= 0 && hierarchyIndex < contours.size()) {
+            Imgproc.drawContours(frame,contours,hierarchyIndex,color,3,8,hierarchy, 1, new Point(0, 0));
+        }
+        Imgproc.circle(frame,new Point(x,y),5,color);
+        Imgproc.putText(frame,intToString(x)+ " , " + intToString(y),new Point(x,y+20),1,1,color);
+        int trackId = detections.getTrackId(i);
+        Imgproc.putText(frame,trackId == Detections.NO_TRACK ? name : name + " #" + trackId,new Point(x,y-20),1,2,color);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+    RobotCar.Devel.Tracking
+    Color based tracking of multiple objects with OpenCV on Android.
+    Copyright (C) 2018  Barnabás Nagy - otapiGems.com - otapiGems@protonmail.ch
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.otapigems.robotcar.devel.tracking;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Blob extraction with connectedComponentsWithStats: area, bounding box and centroid of every
+ * blob of a mask in one native call, read back with one JNI call per table.
+ * Label 0 is the background, blobs are 1 .. getCount() - 1.
+ */
+class ConnectedComponents {
+    final Mat labels = new Mat();
+    private final Mat stats = new Mat();
+    private final Mat centroids = new Mat();
+    private int[] statsData = new int[0];
+    private double[] centroidData = new double[0];
+    private int count;
+
+    /**
+     * Label the blobs of the mask with 8-connectivity
+     * @param workspace counts the allocation of the label image
+     * @return number of labels, background included
+     */
+    int find(Mat mask, FrameWorkspace workspace) {
+        //sized up front, so connectedComponentsWithStats reuses it
+        workspace.ensure(labels, mask.rows(), mask.cols(), CvType.CV_32S);
+        count = Imgproc.connectedComponentsWithStats(mask, labels, stats, centroids, 8, CvType.CV_32S);
+        int statsLength = count * Imgproc.CC_STAT_MAX;
+        if (statsData.length < statsLength) {
+            statsData = new int[statsLength];
+            centroidData = new double[count * 2];
+        }
+        if (count > 0) {
+            stats.get(0, 0, statsData);
+            centroids.get(0, 0, centroidData);
+        }
+        return count;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    int left(int label) {
+        return statsData[label * Imgproc.CC_STAT_MAX + Imgproc.CC_STAT_LEFT];
+    }
+
+    int top(int label) {
+        return statsData[label * Imgproc.CC_STAT_MAX + Imgproc.CC_STAT_TOP];
+    }
+
+    int width(int label) {
+        return statsData[label * Imgproc.CC_STAT_MAX + Imgproc.CC_STAT_WIDTH];
+    }
+
+    int height(int label) {
+        return statsData[label * Imgproc.CC_STAT_MAX + Imgproc.CC_STAT_HEIGHT];
+    }
+
+    //number of pixels of the blob
+    int area(int label) {
+        return statsData[label * Imgproc.CC_STAT_MAX + Imgproc.CC_STAT_AREA];
+    }
+
+    double centroidX(int label) {
+        return centroidData[label * 2];
+    }
+
+    double centroidY(int label) {
+        return centroidData[label * 2 + 1];
+    }
+
+    void release() {
+        labels.release();
+        stats.release();
+        centroids.release();
+        count = 0;
+    }
+}
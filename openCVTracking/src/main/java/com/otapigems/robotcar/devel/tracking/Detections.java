@@ -0,0 +1,181 @@
+/*
+    RobotCar.Devel.Tracking
+    Color based tracking of multiple objects with OpenCV on Android.
+    Copyright (C) 2018  Barnabás Nagy - otapiGems.com - otapiGems@protonmail.ch
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.otapigems.robotcar.devel.tracking;
+
+/**
+ * Detections stored as parallel primitive arrays, preallocated for a fixed capacity and
+ * reused for every frame, so tracking does not create objects per blob.
+ * Only the engine fills it, the public methods are read only.
+ */
+public class Detections {
+    //track id of a detection without a Track, see getTrackId()
+    public static final int NO_TRACK = -1;
+
+    private final int[] x;
+    private final int[] y;
+    private final double[] area;
+    private final int[] objectId;
+    private final int[] hierarchyIndex;
+    private final int[] trackId;
+    //capture time and number of the frame of the detection
+    private final long[] timestamp;
+    private final long[] sequence;
+    private int size;
+
+    Detections(int capacity) {
+        x = new int[capacity];
+        y = new int[capacity];
+        area = new double[capacity];
+        objectId = new int[capacity];
+        hierarchyIndex = new int[capacity];
+        trackId = new int[capacity];
+        timestamp = new long[capacity];
+        sequence = new long[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getCapacity() {
+        return x.length;
+    }
+
+    //centroid of the detection in frame coordinates
+    public int getX(int i) {
+        return x[check(i)];
+    }
+
+    public int getY(int i) {
+        return y[check(i)];
+    }
+
+    public double getArea(int i) {
+        return area[check(i)];
+    }
+
+    /**
+     * @return index of the tracked object, see TrackingEngine.getObjects()
+     */
+    public int getObjectId(int i) {
+        return objectId[check(i)];
+    }
+
+    /**
+     * @return index of the outer contour in the contours of the object, -1 if there is none
+     */
+    public int getHierarchyIndex(int i) {
+        return hierarchyIndex[check(i)];
+    }
+
+    /**
+     * @return id of the Track of the detection, NO_TRACK without tracking or if all
+     * KalmanTracker.MAX_TRACKS tracks of the object were detected in the frame
+     */
+    public int getTrackId(int i) {
+        return trackId[check(i)];
+    }
+
+    /**
+     * @return capture time of the frame of the detection, in nanoseconds
+     */
+    public long getTimestamp(int i) {
+        return timestamp[check(i)];
+    }
+
+    /**
+     * @return number of the frame of the detection in capture order
+     */
+    public long getSequence(int i) {
+        return sequence[check(i)];
+    }
+
+    private int check(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", size: " + size);
+        }
+        return i;
+    }
+
+    /**
+     * @return index of the new detection, or -1 if the buffer is full
+     */
+    int add(int x, int y, double area, int objectId, int hierarchyIndex) {
+        if (size >= this.x.length) {
+            return -1;
+        }
+        this.x[size] = x;
+        this.y[size] = y;
+        this.area[size] = area;
+        this.objectId[size] = objectId;
+        this.hierarchyIndex[size] = hierarchyIndex;
+        this.trackId[size] = NO_TRACK;
+        this.timestamp[size] = 0;
+        this.sequence[size] = 0;
+        return size++;
+    }
+
+    /**
+     * Append the detections of another buffer, as many as fit
+     */
+    void addAll(Detections other) {
+        int n = Math.min(other.size, x.length - size);
+        System.arraycopy(other.x, 0, x, size, n);
+        System.arraycopy(other.y, 0, y, size, n);
+        System.arraycopy(other.area, 0, area, size, n);
+        System.arraycopy(other.objectId, 0, objectId, size, n);
+        System.arraycopy(other.hierarchyIndex, 0, hierarchyIndex, size, n);
+        System.arraycopy(other.trackId, 0, trackId, size, n);
+        System.arraycopy(other.timestamp, 0, timestamp, size, n);
+        System.arraycopy(other.sequence, 0, sequence, size, n);
+        size += n;
+    }
+
+    void setPosition(int i, int x, int y) {
+        this.x[check(i)] = x;
+        this.y[i] = y;
+    }
+
+    void setHierarchyIndex(int i, int index) {
+        hierarchyIndex[check(i)] = index;
+    }
+
+    void setTrackId(int i, int id) {
+        trackId[check(i)] = id;
+    }
+
+    /**
+     * Set the frame of the detections from index from to the end
+     */
+    void stamp(int from, long timestamp, long sequence) {
+        for (int i = from; i < size; i++) {
+            this.timestamp[i] = timestamp;
+            this.sequence[i] = sequence;
+        }
+    }
+
+    void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+    RobotCar.Devel.Tracking
+    Color based tracking of multiple objects with OpenCV on Android.
+    Copyright (C) 2018  Barnabás Nagy - otapiGems.com - otapiGems@protonmail.ch
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.otapigems.robotcar.devel.tracking;
+
+import java.util.List;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.Video;
+
+/**
+ * Moves the detections of the last detection frame with sparse optical flow.
+ * A few points are placed on every detection, then each frame the points of all objects are
+ * followed with one calcOpticalFlowPyrLK call on the gray frames, and every detection moves
+ * by the mean motion of its points. The two gray frames are swapped, not reallocated.
+ */
+class FlowPropagator {
+    //points per detection: a 3 x 3 grid over the blob
+    static final int GRID = 3;
+    //a detection with fewer points left is lost, the frame needs a full detection
+    static final int MIN_POINTS = 3;
+    private static final Size WINDOW = new Size(15, 15);
+    private static final int MAX_LEVEL = 2;
+
+    private final FrameWorkspace workspace;
+    private final Mat[] gray = {new Mat(), new Mat()};
+    private int current;
+    private boolean seeded;
+
+    private final MatOfPoint2f points = new MatOfPoint2f();
+    private final MatOfPoint2f nextPoints = new MatOfPoint2f();
+    private final MatOfByte status = new MatOfByte();
+    private final MatOfFloat error = new MatOfFloat();
+    private float[] pointData = new float[0];
+    private float[] nextData = new float[0];
+    private byte[] statusData = new byte[0];
+    private int pointCount;
+    //slot and detection index of every point
+    private int[] pointSlot = new int[0];
+    private int[] pointDetection = new int[0];
+
+    //position and motion of every detection, indexed by slot then detection
+    private double[][] centerX = new double[0][];
+    private double[][] centerY = new double[0][];
+    private double[][] motionX = new double[0][];
+    private double[][] motionY = new double[0][];
+    private int[][] motionCount = new int[0][];
+
+    FlowPropagator(FrameWorkspace workspace) {
+        this.workspace = workspace;
+    }
+
+    /**
+     * Place the points on the detections of a detection frame
+     * @param rgba RGBA frame, or the gray luma plane of a YUV frame
+     */
+    void seed(Mat rgba, List<ObjectSlot> slots) {
+        toGray(rgba, current);
+        ensureSlots(slots.size());
+        int count = 0;
+        for (ObjectSlot slot : slots) {
+            count += slot.occurrences.size() * GRID * GRID;
+        }
+        ensurePoints(count);
+
+        pointCount = 0;
+        for (ObjectSlot slot : slots) {
+            Detections occurrences = slot.occurrences;
+            for (int i = 0; i < occurrences.size(); i++) {
+                double x = occurrences.getX(i);
+                double y = occurrences.getY(i);
+                centerX[slot.index][i] = x;
+                centerY[slot.index][i] = y;
+                //the outer points of the grid are on the boundary of the blob, where the
+                //texture is, a flat colored inside gives no flow
+                double step = Math.sqrt(occurrences.getArea(i)) / (GRID - 1);
+                for (int gy = 0; gy < GRID; gy++) {
+                    for (int gx = 0; gx < GRID; gx++) {
+                        pointData[pointCount * 2] = (float) clamp(x + (gx - GRID / 2) * step, rgba.cols());
+                        pointData[pointCount * 2 + 1] = (float) clamp(y + (gy - GRID / 2) * step, rgba.rows());
+                        pointSlot[pointCount] = slot.index;
+                        pointDetection[pointCount] = i;
+                        pointCount++;
+                    }
+                }
+            }
+        }
+        putPoints();
+        seeded = true;
+    }
+
+    /**
+     * Move the detections of the slots to the frame
+     * @return false if there is nothing seeded or a detection lost its points, the frame
+     * needs a full detection then. The detections are unchanged in that case.
+     */
+    boolean propagate(Mat rgba, List<ObjectSlot> slots) {
+        //an object added or a frame size change since the seed needs a detection
+        if (!seeded || slots.size() > centerX.length
+                || gray[current].cols() != rgba.cols() || gray[current].rows() != rgba.rows()) {
+            return false;
+        }
+        int next = 1 - current;
+        toGray(rgba, next);
+        if (pointCount == 0) {
+            //nothing to follow, new objects show up at the next detection frame
+            current = next;
+            return true;
+        }
+        Video.calcOpticalFlowPyrLK(gray[current], gray[next], points, nextPoints, status, error, WINDOW, MAX_LEVEL);
+        nextPoints.get(0, 0, nextData);
+        status.get(0, 0, statusData);
+
+        for (ObjectSlot slot : slots) {
+            for (int i = 0; i < slot.occurrences.size(); i++) {
+                motionX[slot.index][i] = 0;
+                motionY[slot.index][i] = 0;
+                motionCount[slot.index][i] = 0;
+            }
+        }
+        for (int p = 0; p < pointCount; p++) {
+            if (statusData[p] != 0) {
+                int s = pointSlot[p];
+                int d = pointDetection[p];
+                motionX[s][d] += nextData[p * 2] - pointData[p * 2];
+                motionY[s][d] += nextData[p * 2 + 1] - pointData[p * 2 + 1];
+                motionCount[s][d]++;
+            }
+        }
+        for (ObjectSlot slot : slots) {
+            for (int i = 0; i < slot.occurrences.size(); i++) {
+                if (motionCount[slot.index][i] < MIN_POINTS) {
+                    seeded = false;
+                    return false;
+                }
+            }
+        }
+
+        for (ObjectSlot slot : slots) {
+            Detections occurrences = slot.occurrences;
+            for (int i = 0; i < occurrences.size(); i++) {
+                int n = motionCount[slot.index][i];
+                centerX[slot.index][i] += motionX[slot.index][i] / n;
+                centerY[slot.index][i] += motionY[slot.index][i] / n;
+                occurrences.setPosition(i, (int) Math.round(centerX[slot.index][i]), (int) Math.round(centerY[slot.index][i]));
+                //the contours are from the detection frame
+                occurrences.setHierarchyIndex(i, -1);
+            }
+        }
+
+        //keep the points that were found, at their new position
+        int kept = 0;
+        for (int p = 0; p < pointCount; p++) {
+            if (statusData[p] != 0) {
+                pointData[kept * 2] = nextData[p * 2];
+                pointData[kept * 2 + 1] = nextData[p * 2 + 1];
+                pointSlot[kept] = pointSlot[p];
+                pointDetection[kept] = pointDetection[p];
+                kept++;
+            }
+        }
+        pointCount = kept;
+        putPoints();
+        current = next;
+        return true;
+    }
+
+    //the luma plane of a YUV frame is already gray
+    private void toGray(Mat frame, int index) {
+        workspace.ensure(gray[index], frame.rows(), frame.cols(), CvType.CV_8UC1);
+        if (frame.channels() == 1) {
+            frame.copyTo(gray[index]);
+        } else {
+            Imgproc.cvtColor(frame, gray[index], Imgproc.COLOR_RGBA2GRAY);
+        }
+    }
+
+    //the point Mat is reallocated only when the number of points changes
+    private void putPoints() {
+        if (pointCount > 0) {
+            workspace.ensure(points, pointCount, 1, CvType.CV_32FC2);
+            points.put(0, 0, pointData);
+        }
+    }
+
+    private void ensurePoints(int count) {
+        if (pointSlot.length < count) {
+            pointData = new float[count * 2];
+            nextData = new float[count * 2];
+            statusData = new byte[count];
+            pointSlot = new int[count];
+            pointDetection = new int[count];
+        }
+    }
+
+    private void ensureSlots(int count) {
+        if (centerX.length < count) {
+            centerX = new double[count][TrackingEngine.MAX_NUM_OBJECTS];
+            centerY = new double[count][TrackingEngine.MAX_NUM_OBJECTS];
+            motionX = new double[count][TrackingEngine.MAX_NUM_OBJECTS];
+            motionY = new double[count][TrackingEngine.MAX_NUM_OBJECTS];
+            motionCount = new int[count][TrackingEngine.MAX_NUM_OBJECTS];
+        }
+    }
+
+    private static double clamp(double value, int size) {
+        return Math.max(0, Math.min(size - 1, value));
+    }
+
+    void reset() {
+        seeded = false;
+        pointCount = 0;
+    }
+
+    void release() {
+        for (Mat m : gray) {
+            m.release();
+        }
+        points.release();
+        nextPoints.release();
+        status.release();
+        error.release();
+        reset();
+    }
+}
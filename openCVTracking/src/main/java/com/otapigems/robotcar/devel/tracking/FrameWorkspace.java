@@ -0,0 +1,169 @@
+/*
+    RobotCar.Devel.Tracking
+    Color based tracking of multiple objects with OpenCV on Android.
+    Copyright (C) 2018  Barnabás Nagy - otapiGems.com - otapiGems@protonmail.ch
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.otapigems.robotcar.devel.tracking;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Native buffers of the tracking pipeline. They are sized once when the camera starts and
+ * reused for every frame, so steady-state frames do not leave Mats to the finalizer.
+ * Every native Mat (re)allocation done here is counted, see getAllocationCount(). Only the
+ * buffers are counted: the submat headers of the search windows and the contours of
+ * findContours are still created per frame and released eagerly by their users.
+ * With a pyramid level above 0 the frame is halved level times with pyrDown and the HSV
+ * and label buffers (and the object masks) have the size of that coarse level.
+ */
+class FrameWorkspace {
+    Mat hsv;
+
+    private final List<Mat> labelPlanes = new ArrayList<>();
+    //RGBA frame at pyramid level 1, 2, ...
+    private final List<Mat> pyramid = new ArrayList<>();
+    private int frameWidth, frameHeight, level;
+    //size of the processed level
+    private int width, height;
+    private int allocationCount;
+
+    FrameWorkspace() {
+        hsv = new Mat();
+    }
+
+    /**
+     * Size all buffers for the given frame size. Called from onCameraViewStarted.
+     */
+    void allocate(int width, int height) {
+        allocate(width, height, 0);
+    }
+
+    /**
+     * Size all buffers for the given frame size and pyramid level
+     */
+    void allocate(int frameWidth, int frameHeight, int level) {
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        this.level = level;
+        width = frameWidth;
+        height = frameHeight;
+        while (pyramid.size() < level) {
+            pyramid.add(new Mat());
+        }
+        for (int l = 0; l < level; l++) {
+            //same rounding as pyrDown
+            width = (width + 1) / 2;
+            height = (height + 1) / 2;
+            ensure(pyramid.get(l), CvType.CV_8UC4);
+        }
+        ensure(hsv, CvType.CV_8UC3);
+        for (Mat plane : labelPlanes) {
+            ensure(plane, CvType.CV_8UC1);
+        }
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * Label plane of the HsvClassifier, created on first use and kept afterwards
+     */
+    Mat labelPlane(int index) {
+        while (labelPlanes.size() <= index) {
+            labelPlanes.add(new Mat());
+        }
+        Mat plane = labelPlanes.get(index);
+        ensure(plane, CvType.CV_8UC1);
+        return plane;
+    }
+
+    /**
+     * Make sure the buffers match the frame. Returns without allocation in the steady state.
+     */
+    void fit(Mat frame, int level) {
+        if (frame.cols() != frameWidth || frame.rows() != frameHeight || level != this.level) {
+            allocate(frame.cols(), frame.rows(), level);
+        }
+    }
+
+    /**
+     * Downscale the RGBA frame to the pyramid level of the workspace
+     * @return the frame itself at level 0, otherwise the last pyramid level
+     */
+    Mat downscale(Mat frame) {
+        Mat source = frame;
+        for (int l = 0; l < level; l++) {
+            Imgproc.pyrDown(source, pyramid.get(l));
+            source = pyramid.get(l);
+        }
+        return source;
+    }
+
+    private void ensure(Mat m, int type) {
+        ensure(m, height, width, type);
+    }
+
+    /**
+     * (Re)allocate a buffer owned by some other stage, so it is counted too.
+     * Synchronized, the object slots call it from the worker threads.
+     */
+    synchronized void ensure(Mat m, int rows, int cols, int type) {
+        if (m.rows() != rows || m.cols() != cols || m.type() != type) {
+            m.create(rows, cols, type);
+            allocationCount++;
+        }
+    }
+
+    /**
+     * Number of native Mat allocations done by the workspace. It stays constant as long
+     * as the frame size does not change, search windows add one only when their size changes.
+     * Headers and contours created outside the workspace are not counted.
+     */
+    synchronized int getAllocationCount() {
+        return allocationCount;
+    }
+
+    void release() {
+        hsv.release();
+        for (Mat plane : labelPlanes) {
+            plane.release();
+        }
+        labelPlanes.clear();
+        for (Mat l : pyramid) {
+            l.release();
+        }
+        pyramid.clear();
+        frameWidth = 0;
+        frameHeight = 0;
+        width = 0;
+        height = 0;
+    }
+}
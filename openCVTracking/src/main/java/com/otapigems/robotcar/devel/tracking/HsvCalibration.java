@@ -0,0 +1,138 @@
+/*
+    RobotCar.Devel.Tracking
+    Color based tracking of multiple objects with OpenCV on Android.
+    Copyright (C) 2018  Barnabás Nagy - otapiGems.com - otapiGems@protonmail.ch
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.otapigems.robotcar.devel.tracking;
+
+import java.util.Arrays;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Tunes the HSV filter of a new TrackObject from selected image regions.
+ * Every sample region is converted to HSV and read with one JNI call into per channel
+ * histograms. Several samples can be merged, e.g. the object in light and in shadow.
+ * The range covers the histograms without the given fraction of outliers on both ends.
+ */
+class HsvCalibration {
+    //fraction of the pixels left out below and above the range of every channel
+    static final double DEFAULT_TRIM = 0.01;
+
+    private final long[][] histograms = new long[3][256];
+    private long pixelCount;
+    private final Mat regionHsv = new Mat();
+    private byte[] buffer = new byte[0];
+
+    /**
+     * Add the pixels of a region to the histograms
+     * @param regionRgba selected image RGBA, not released
+     */
+    void addSample(Mat regionRgba) {
+        Imgproc.cvtColor(regionRgba, regionHsv, Imgproc.COLOR_RGB2HSV_FULL);
+        int length = (int) regionHsv.total() * 3;
+        if (buffer.length < length) {
+            buffer = new byte[length];
+        }
+        regionHsv.get(0, 0, buffer);
+        long[] h = histograms[0], s = histograms[1], v = histograms[2];
+        for (int i = 0; i < length; i += 3) {
+            h[buffer[i] & 0xff]++;
+            s[buffer[i + 1] & 0xff]++;
+            v[buffer[i + 2] & 0xff]++;
+        }
+        pixelCount += length / 3;
+    }
+
+    long getPixelCount() {
+        return pixelCount;
+    }
+
+    /**
+     * @param trim fraction of the pixels left out below and above the range, per channel
+     * @return new object with the HSV range and the average color of the samples,
+     * or null without samples
+     */
+    TrackObject toTrackObject(String name, double trim) {
+        if (pixelCount == 0) {
+            return null;
+        }
+        Scalar min = new Scalar(0, 0, 0);
+        Scalar max = new Scalar(0, 0, 0);
+        Scalar mean = new Scalar(0, 0, 0);
+        //the pixels at the cut value stay inside the range
+        long cut = (long) Math.floor(pixelCount * Math.max(0, Math.min(0.5, trim)));
+        for (int c = 0; c < 3; c++) {
+            long[] histogram = histograms[c];
+            min.val[c] = percentile(histogram, cut);
+            max.val[c] = percentileFromTop(histogram, cut);
+            long sum = 0;
+            for (int value = 0; value < 256; value++) {
+                sum += value * histogram[value];
+            }
+            mean.val[c] = (double) sum / pixelCount;
+        }
+        return new TrackObject(name, min, max, convertScalarHsv2Rgba(mean));
+    }
+
+    //lowest value with more than skip pixels at or below it
+    private static int percentile(long[] histogram, long skip) {
+        long count = 0;
+        for (int value = 0; value < 256; value++) {
+            count += histogram[value];
+            if (count > skip) {
+                return value;
+            }
+        }
+        return 255;
+    }
+
+    //highest value with more than skip pixels at or above it
+    private static int percentileFromTop(long[] histogram, long skip) {
+        long count = 0;
+        for (int value = 255; value >= 0; value--) {
+            count += histogram[value];
+            if (count > skip) {
+                return value;
+            }
+        }
+        return 0;
+    }
+
+    void clear() {
+        for (long[] histogram : histograms) {
+            Arrays.fill(histogram, 0);
+        }
+        pixelCount = 0;
+    }
+
+    void release() {
+        regionHsv.release();
+        clear();
+    }
+
+    static Scalar convertScalarHsv2Rgba(Scalar hsvColor) {
+        Mat pointMatRgba = new Mat();
+        Mat pointMatHsv = new Mat(1, 1, CvType.CV_8UC3, hsvColor);
+        Imgproc.cvtColor(pointMatHsv, pointMatRgba, Imgproc.COLOR_HSV2RGB_FULL, 4);
+
+        return new Scalar(pointMatRgba.get(0, 0));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+    RobotCar.Devel.Tracking
+    Color based tracking of multiple objects with OpenCV on Android.
+    Copyright (C) 2018  Barnabás Nagy - otapiGems.com - otapiGems@protonmail.ch
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.otapigems.robotcar.devel.tracking;
+
+import java.util.Arrays;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Classifies every pixel of an HSV frame against all TrackObjects in a single pass.
+ * Each channel has a 256 entry lookup table holding one bit per object, the label of a
+ * pixel is the AND of its H, S and V entries. Labels are stored in 8 bit planes, so plane
+ * p holds objects 8*p .. 8*p+7.
+ */
+class HsvClassifier {
+    //one bit per object in an int table
+    static final int MAX_OBJECTS = 32;
+    private static final int OBJECTS_PER_PLANE = 8;
+
+    private final int[] hTable = new int[256];
+    private final int[] sTable = new int[256];
+    private final int[] vTable = new int[256];
+    private int objectCount;
+
+    //label -> 0 / 255 lookup table for every bit of a plane
+    private final Mat[] bitLuts = new Mat[OBJECTS_PER_PLANE];
+    private final FrameWorkspace workspace;
+    private byte[] hsvBuffer;
+    private byte[][] labelBuffers = new byte[0][];
+
+    HsvClassifier(FrameWorkspace workspace) {
+        this.workspace = workspace;
+        byte[] lut = new byte[256];
+        for (int bit = 0; bit < OBJECTS_PER_PLANE; bit++) {
+            for (int label = 0; label < 256; label++) {
+                lut[label] = (byte) ((label & (1 << bit)) != 0 ? 255 : 0);
+            }
+            bitLuts[bit] = new Mat(1, 256, CvType.CV_8UC1);
+            bitLuts[bit].put(0, 0, lut);
+        }
+    }
+
+    int getObjectCount() {
+        return objectCount;
+    }
+
+    /**
+     * Register the HSV range of the next object. Same bounds as Core.inRange: inclusive on both ends.
+     * @param obj object with HSVmin and HSVmax set
+     * @return index of the object, or -1 if there is no free bit left
+     */
+    int addObject(TrackObject obj) {
+        if (objectCount >= MAX_OBJECTS) {
+            return -1;
+        }
+        int bit = 1 << objectCount;
+        setRange(hTable, obj.getHSVmin().val[0], obj.getHSVmax().val[0], bit);
+        setRange(sTable, obj.getHSVmin().val[1], obj.getHSVmax().val[1], bit);
+        setRange(vTable, obj.getHSVmin().val[2], obj.getHSVmax().val[2], bit);
+        return objectCount++;
+    }
+
+    void clear() {
+        Arrays.fill(hTable, 0);
+        Arrays.fill(sTable, 0);
+        Arrays.fill(vTable, 0);
+        objectCount = 0;
+    }
+
+    //Core.inRange rounds the bounds to the nearest integer first
+    private static void setRange(int[] table, double min, double max, int bit) {
+        int from = (int) Math.max(0, Math.rint(min));
+        int to = (int) Math.min(255, Math.rint(max));
+        for (int i = from; i <= to; i++) {
+            table[i] |= bit;
+        }
+    }
+
+    private int planeCount() {
+        return (objectCount + OBJECTS_PER_PLANE - 1) / OBJECTS_PER_PLANE;
+    }
+
+    /**
+     * Label each pixel of the frame with the bits of all matching objects
+     * @param hsv CV_8UC3 HSV frame, same size as the workspace
+     */
+    void classify(Mat hsv) {
+        int pixels = hsv.rows() * hsv.cols();
+        int planes = planeCount();
+
+        if (hsvBuffer == null || hsvBuffer.length != pixels * 3) {
+            hsvBuffer = new byte[pixels * 3];
+        }
+        if (labelBuffers.length != planes || (planes > 0 && labelBuffers[0].length != pixels)) {
+            labelBuffers = new byte[planes][pixels];
+        }
+
+        hsv.get(0, 0, hsvBuffer);
+        if (planes == 1) {
+            byte[] labels = labelBuffers[0];
+            for (int i = 0, j = 0; i < pixels; i++, j += 3) {
+                labels[i] = (byte) (hTable[hsvBuffer[j] & 0xff] & sTable[hsvBuffer[j + 1] & 0xff] & vTable[hsvBuffer[j + 2] & 0xff]);
+            }
+        } else {
+            for (int i = 0, j = 0; i < pixels; i++, j += 3) {
+                int label = hTable[hsvBuffer[j] & 0xff] & sTable[hsvBuffer[j + 1] & 0xff] & vTable[hsvBuffer[j + 2] & 0xff];
+                for (int p = 0; p < planes; p++) {
+                    labelBuffers[p][i] = (byte) (label >>> (p * OBJECTS_PER_PLANE));
+                }
+            }
+        }
+        for (int p = 0; p < planes; p++) {
+            workspace.labelPlane(p).put(0, 0, labelBuffers[p]);
+        }
+    }
+
+    /**
+     * Pull the binary (0 / 255) mask of one object out of the last classified frame
+     * @param objectIndex index returned by addObject
+     * @param mask output CV_8UC1 mask
+     */
+    void extractMask(int objectIndex, Mat mask) {
+        Core.LUT(workspace.labelPlane(objectIndex / OBJECTS_PER_PLANE), bitLuts[objectIndex % OBJECTS_PER_PLANE], mask);
+    }
+}
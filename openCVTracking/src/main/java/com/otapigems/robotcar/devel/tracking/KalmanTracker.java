@@ -0,0 +1,213 @@
+/*
+    RobotCar.Devel.Tracking
+    Color based tracking of multiple objects with OpenCV on Android.
+    Copyright (C) 2018  Barnabás Nagy - otapiGems.com - otapiGems@protonmail.ch
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.otapigems.robotcar.devel.tracking;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opencv.core.Rect;
+
+/**
+ * Tracks of one TrackObject between frames. Every frame the tracks are predicted to the
+ * frame time, then the detections are assigned to the tracks greedily, closest pair first,
+ * within the gate. Unassigned detections start new tracks, tracks missing for too long end.
+ * The tracks come from a fixed pool of MAX_TRACKS, so the steady state does not allocate.
+ * With the pool full, a new detection takes over the track missing the longest. If every
+ * track was detected in the frame, the detection stays without a track, Detections.NO_TRACK.
+ */
+class KalmanTracker {
+    static final int MAX_TRACKS = 8;
+    //chi-square 99% of 2 degrees of freedom, squared Mahalanobis distance
+    static final double GATE = 9.21;
+    //a track is reported after this many detections
+    static final int CONFIRM_HITS = 3;
+    static final int MAX_MISSES = 10;
+    //longest frame gap that is predicted, in seconds
+    private static final double MAX_DT = 1;
+
+    //live tracks first, the free pool entries after them
+    private final Track[] tracks = new Track[MAX_TRACKS];
+    private int trackCount;
+    private final boolean[] assignedTracks = new boolean[MAX_TRACKS];
+    private final boolean[] assignedDetections = new boolean[TrackingEngine.MAX_NUM_OBJECTS];
+    private long lastTimestamp = -1;
+    private double lastDt;
+    private final Rect box = new Rect();
+
+    KalmanTracker() {
+        for (int i = 0; i < MAX_TRACKS; i++) {
+            tracks[i] = new Track();
+        }
+    }
+
+    /**
+     * Predict the tracks to the frame time and assign the detections of the object to them.
+     * Sets the track id of the assigned detections.
+     * @param timestamp frame time in nanoseconds
+     * @param ids source of the track ids, shared by all objects
+     */
+    void update(Detections detections, int objectId, long timestamp, AtomicInteger ids) {
+        double dt = lastTimestamp < 0 ? 0 : Math.max(0, Math.min(MAX_DT, (timestamp - lastTimestamp) / 1e9));
+        lastTimestamp = timestamp;
+        if (dt > 0) {
+            lastDt = dt;
+        }
+        for (int t = 0; t < trackCount; t++) {
+            tracks[t].predict(dt);
+            assignedTracks[t] = false;
+        }
+        int detectionCount = detections.size();
+        for (int d = 0; d < detectionCount; d++) {
+            assignedDetections[d] = false;
+        }
+
+        //greedy assignment, the closest gated pair first
+        while (true) {
+            int bestTrack = -1, bestDetection = -1;
+            double best = GATE;
+            for (int t = 0; t < trackCount; t++) {
+                if (assignedTracks[t]) {
+                    continue;
+                }
+                for (int d = 0; d < detectionCount; d++) {
+                    if (assignedDetections[d]) {
+                        continue;
+                    }
+                    double distance = tracks[t].distance(detections.getX(d), detections.getY(d));
+                    if (distance < best) {
+                        best = distance;
+                        bestTrack = t;
+                        bestDetection = d;
+                    }
+                }
+            }
+            if (bestTrack < 0) {
+                break;
+            }
+            Track track = tracks[bestTrack];
+            track.correct(detections.getX(bestDetection), detections.getY(bestDetection), detections.getArea(bestDetection));
+            detections.setTrackId(bestDetection, track.getId());
+            assignedTracks[bestTrack] = true;
+            assignedDetections[bestDetection] = true;
+        }
+
+        for (int t = 0; t < trackCount; t++) {
+            if (!assignedTracks[t]) {
+                tracks[t].missed();
+            }
+        }
+        removeLost();
+
+        for (int d = 0; d < detectionCount; d++) {
+            if (assignedDetections[d]) {
+                continue;
+            }
+            int t = trackCount < MAX_TRACKS ? trackCount++ : leastConfident();
+            if (t < 0) {
+                //every track was detected in this frame
+                break;
+            }
+            Track track = tracks[t];
+            track.start(ids.getAndIncrement(), objectId,
+                    detections.getX(d), detections.getY(d), detections.getArea(d));
+            assignedTracks[t] = true;
+            detections.setTrackId(d, track.getId());
+        }
+    }
+
+    //swaps the lost tracks behind the live ones, so their entries are reused
+    private void removeLost() {
+        int kept = 0;
+        for (int t = 0; t < trackCount; t++) {
+            Track track = tracks[t];
+            if (track.getMisses() <= MAX_MISSES) {
+                boolean assigned = assignedTracks[t];
+                tracks[t] = tracks[kept];
+                assignedTracks[t] = assignedTracks[kept];
+                tracks[kept] = track;
+                assignedTracks[kept++] = assigned;
+            }
+        }
+        trackCount = kept;
+    }
+
+    /**
+     * @return the track missing for the most frames, fewer hits first, -1 if every track was
+     * detected or started in this frame
+     */
+    private int leastConfident() {
+        int worst = -1;
+        for (int t = 0; t < trackCount; t++) {
+            if (assignedTracks[t]) {
+                continue;
+            }
+            if (worst < 0 || tracks[t].getMisses() > tracks[worst].getMisses()
+                    || (tracks[t].getMisses() == tracks[worst].getMisses() && tracks[t].getHits() < tracks[worst].getHits())) {
+                worst = t;
+            }
+        }
+        return worst;
+    }
+
+    boolean hasTracks() {
+        return trackCount > 0;
+    }
+
+    /**
+     * Box around the positions predicted for the next frame, each track sqrt(area) * scale wide
+     * and growing with its misses. hasTracks() must be true.
+     */
+    Rect predictedBox(double scale) {
+        int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE;
+        int right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+        for (int t = 0; t < trackCount; t++) {
+            Track track = tracks[t];
+            double half = Math.sqrt(track.getArea()) * scale * (1 + track.getMisses()) / 2;
+            double px = track.getX() + track.getVelocityX() * lastDt;
+            double py = track.getY() + track.getVelocityY() * lastDt;
+            left = Math.min(left, (int) Math.floor(px - half));
+            top = Math.min(top, (int) Math.floor(py - half));
+            right = Math.max(right, (int) Math.ceil(px + half));
+            bottom = Math.max(bottom, (int) Math.ceil(py + half));
+        }
+        box.x = left;
+        box.y = top;
+        box.width = right - left;
+        box.height = bottom - top;
+        return box;
+    }
+
+    /**
+     * Add the confirmed tracks to the list
+     */
+    void confirmed(List<Track> out) {
+        for (int t = 0; t < trackCount; t++) {
+            if (tracks[t].getHits() >= CONFIRM_HITS) {
+                out.add(tracks[t]);
+            }
+        }
+    }
+
+    void reset() {
+        trackCount = 0;
+        lastTimestamp = -1;
+        lastDt = 0;
+    }
+}
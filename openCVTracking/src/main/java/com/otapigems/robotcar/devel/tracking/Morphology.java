@@ -0,0 +1,101 @@
+/*
+    RobotCar.Devel.Tracking
+    Color based tracking of multiple objects with OpenCV on Android.
+    Copyright (C) 2018  Barnabás Nagy - otapiGems.com - otapiGems@protonmail.ch
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.otapigems.robotcar.devel.tracking;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import static org.opencv.imgproc.Imgproc.MORPH_RECT;
+
+/**
+ * Erode / dilate stage of the threshold masks.
+ * n iterations with a k x k rectangle give the same result as a single pass with a
+ * (k + (n-1)*(k-1)) rectangle, so every iteration count is fused into one pass per
+ * operation. The even dilate kernel reaches one pixel further up and left than down and
+ * right, n passes reach 4n and 3n pixels, so the fused kernel is anchored at 4n instead of
+ * its centre. The kernels are built on first use and kept for the lifetime of the stage.
+ */
+class Morphology {
+    //the element used to erode the noise is a 3px by 3px rectangle
+    static final int ERODE_SIZE = 3;
+    //dilate with larger element so make sure object is nicely visible
+    static final int DILATE_SIZE = 8;
+    //largest iteration count of TrackObject
+    static final int MAX_ITERATIONS = 8;
+
+    private final Mat[] erodeKernels = new Mat[MAX_ITERATIONS + 1];
+    private final Mat[] dilateKernels = new Mat[MAX_ITERATIONS + 1];
+    private final Point[] dilateAnchors = new Point[MAX_ITERATIONS + 1];
+
+    /**
+     * Remove the noise then grow the remaining blobs, in place
+     * @param mask binary mask
+     * @param erodeIterations number of 3x3 erosions, 0 to skip
+     * @param dilateIterations number of 8x8 dilations, 0 to skip
+     */
+    void apply(Mat mask, int erodeIterations, int dilateIterations) {
+        if (erodeIterations > 0) {
+            Imgproc.erode(mask, mask, kernel(erodeKernels, ERODE_SIZE, erodeIterations));
+        }
+        if (dilateIterations > 0) {
+            Mat kernel = kernel(dilateKernels, DILATE_SIZE, dilateIterations);
+            Imgproc.dilate(mask, mask, kernel, dilateAnchor(dilateIterations), 1);
+        }
+    }
+
+    static int fusedSize(int size, int iterations) {
+        return size + (iterations - 1) * (size - 1);
+    }
+
+    //synchronized, the objects may be processed on several threads
+    private synchronized Mat kernel(Mat[] kernels, int size, int iterations) {
+        int n = Math.min(iterations, MAX_ITERATIONS);
+        if (kernels[n] == null) {
+            int fused = fusedSize(size, n);
+            kernels[n] = Imgproc.getStructuringElement(MORPH_RECT, new Size(fused, fused));
+        }
+        return kernels[n];
+    }
+
+    //same reach as n passes of the DILATE_SIZE kernel with its default anchor
+    private synchronized Point dilateAnchor(int iterations) {
+        int n = Math.min(iterations, MAX_ITERATIONS);
+        if (dilateAnchors[n] == null) {
+            int anchor = n * (DILATE_SIZE / 2);
+            dilateAnchors[n] = new Point(anchor, anchor);
+        }
+        return dilateAnchors[n];
+    }
+
+    synchronized void release() {
+        for (int i = 0; i <= MAX_ITERATIONS; i++) {
+            if (erodeKernels[i] != null) {
+                erodeKernels[i].release();
+                erodeKernels[i] = null;
+            }
+            if (dilateKernels[i] != null) {
+                dilateKernels[i].release();
+                dilateKernels[i] = null;
+            }
+        }
+    }
+}
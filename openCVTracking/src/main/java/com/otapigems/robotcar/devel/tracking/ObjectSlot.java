@@ -0,0 +1,99 @@
+/*
+    RobotCar.Devel.Tracking
+    Color based tracking of multiple objects with OpenCV on Android.
+    Copyright (C) 2018  Barnabás Nagy - otapiGems.com - otapiGems@protonmail.ch
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.otapigems.robotcar.devel.tracking;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+
+/**
+ * Per TrackObject state and scratch buffers of the tracking pipeline.
+ * Every object has its own mask, contours and results, so the objects can be processed
+ * on different threads. Annotations are drawn later from the results, on one thread.
+ */
+class ObjectSlot {
+    final int index;
+    final TrackObject object;
+    final SearchWindow window = new SearchWindow();
+    final KalmanTracker tracker = new KalmanTracker();
+
+    //threshold of the object at the workspace pyramid level
+    final Mat mask = new Mat();
+    final Mat hierarchy = new Mat();
+    //filled by findContours, released at the start of the next use
+    final List<MatOfPoint> contours = new ArrayList<>();
+    private int[] hierarchyData = new int[0];
+    //blobs of the mask with TrackingEngine.BlobExtractors.CONNECTED_COMPONENTS
+    final ConnectedComponents components = new ConnectedComponents();
+
+    //results of the current frame
+    final Detections occurrences = new Detections(TrackingEngine.MAX_NUM_OBJECTS);
+    //component label of every occurrence, with CONNECTED_COMPONENTS
+    final int[] occurrenceLabels = new int[TrackingEngine.MAX_NUM_OBJECTS];
+    //index of the largest occurrence, -1 if none
+    int largest = -1;
+    boolean noisy;
+
+    ObjectSlot(int index, TrackObject object) {
+        this.index = index;
+        this.object = object;
+    }
+
+    void clearResults() {
+        occurrences.clear();
+        largest = -1;
+        noisy = false;
+    }
+
+    /**
+     * Copy the hierarchy written by findContours into a reused array with one JNI call.
+     * Entry i is {next, previous, first child, parent}, only the first
+     * 4 * (number of contours) entries are valid.
+     */
+    int[] readHierarchy() {
+        int length = (int) hierarchy.total() * hierarchy.channels();
+        if (hierarchyData.length < length) {
+            hierarchyData = new int[length];
+        }
+        if (length > 0) {
+            hierarchy.get(0, 0, hierarchyData);
+        }
+        return hierarchyData;
+    }
+
+    void releaseContours() {
+        for (MatOfPoint contour : contours) {
+            contour.release();
+        }
+        contours.clear();
+    }
+
+    void release() {
+        releaseContours();
+        mask.release();
+        hierarchy.release();
+        components.release();
+        window.release();
+        tracker.reset();
+        occurrences.clear();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+    RobotCar.Devel.Tracking
+    Color based tracking of multiple objects with OpenCV on Android.
+    Copyright (C) 2018  Barnabás Nagy - otapiGems.com - otapiGems@protonmail.ch
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.otapigems.robotcar.devel.tracking;
+
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Scalar;
+
+/**
+ * Display list of the annotations, drawn by OverlayView on top of the camera view instead of
+ * into the frame. The tracking thread records into the back list and publishes it, the UI thread
+ * draws the front list. Only numbers and references are recorded, the text is formatted when the
+ * list is drawn. All buffers are preallocated, contour buffers grow only for larger contours.
+ */
+class Overlay {
+    static final int MAX_ITEMS = TrackingEngine.MAX_NUM_OBJECTS;
+
+    /**
+     * One recorded frame. Positions are in frame coordinates.
+     */
+    static class Layer {
+        int frameWidth, frameHeight;
+        boolean noisy;
+        int count;
+        final int[] x = new int[MAX_ITEMS];
+        final int[] y = new int[MAX_ITEMS];
+        final double[] area = new double[MAX_ITEMS];
+        final int[] trackId = new int[MAX_ITEMS];
+        final String[] name = new String[MAX_ITEMS];
+        //0xAARRGGBB color of the object
+        final int[] color = new int[MAX_ITEMS];
+        //x0, y0, x1, y1, ... of the outline, contourLength[i] ints are valid
+        final int[][] contour = new int[MAX_ITEMS][];
+        final int[] contourLength = new int[MAX_ITEMS];
+
+        private void clear(int frameWidth, int frameHeight) {
+            this.frameWidth = frameWidth;
+            this.frameHeight = frameHeight;
+            noisy = false;
+            for (int i = 0; i < count; i++) {
+                name[i] = null;
+            }
+            count = 0;
+        }
+    }
+
+    private Layer back = new Layer();
+    private Layer front = new Layer();
+
+    /**
+     * Record the detections of a frame into the back list, called on the tracking thread
+     * @param result null to record an empty list
+     * @param withContours copy the outlines of the blobs too
+     */
+    void record(TrackingResult result, int frameWidth, int frameHeight, boolean withContours) {
+        Layer layer = back;
+        layer.clear(frameWidth, frameHeight);
+        if (result == null) {
+            return;
+        }
+        layer.noisy = result.isNoisy();
+        for (ObjectSlot slot : result.slots) {
+            Detections occurrences = slot.occurrences;
+            int color = toColor(slot.object.getColor());
+            for (int i = 0; i < occurrences.size() && layer.count < MAX_ITEMS; i++) {
+                int n = layer.count++;
+                layer.x[n] = occurrences.getX(i);
+                layer.y[n] = occurrences.getY(i);
+                layer.area[n] = occurrences.getArea(i);
+                layer.trackId[n] = occurrences.getTrackId(i);
+                layer.name[n] = slot.object.getName();
+                layer.color[n] = color;
+                layer.contourLength[n] = 0;
+                int hierarchyIndex = occurrences.getHierarchyIndex(i);
+                if (withContours && hierarchyIndex >= 0 && hierarchyIndex < slot.contours.size()) {
+                    copyContour(layer, n, slot.contours.get(hierarchyIndex));
+                }
+            }
+        }
+    }
+
+    private static void copyContour(Layer layer, int n, MatOfPoint contour) {
+        int length = (int) contour.total() * 2;
+        if (layer.contour[n] == null || layer.contour[n].length < length) {
+            layer.contour[n] = new int[length];
+        }
+        if (length > 0) {
+            contour.get(0, 0, layer.contour[n]);
+        }
+        layer.contourLength[n] = length;
+    }
+
+    private static int toColor(Scalar rgba) {
+        return 0xff000000 | ((int) rgba.val[0] & 0xff) << 16 | ((int) rgba.val[1] & 0xff) << 8 | ((int) rgba.val[2] & 0xff);
+    }
+
+    /**
+     * Make the recorded list the one to draw
+     */
+    synchronized void publish() {
+        Layer t = front;
+        front = back;
+        back = t;
+    }
+
+    /**
+     * The list to draw. Only valid while holding the lock of the overlay, see OverlayView.
+     */
+    Layer getFront() {
+        return front;
+    }
+}
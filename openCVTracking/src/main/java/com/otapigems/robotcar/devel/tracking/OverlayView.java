@@ -0,0 +1,152 @@
+/*
+    RobotCar.Devel.Tracking
+    Color based tracking of multiple objects with OpenCV on Android.
+    Copyright (C) 2018  Barnabás Nagy - otapiGems.com - otapiGems@protonmail.ch
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.otapigems.robotcar.devel.tracking;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.view.View;
+
+import org.opencv.android.CameraBridgeViewBase;
+
+/**
+ * Transparent view on top of the camera view, draws the published Overlay list on the UI
+ * thread. The frame coordinates are mapped to the place where the camera view draws the frame.
+ */
+public class OverlayView extends View {
+    private static final float LABEL_SIZE = 32;
+    private static final float TEXT_SIZE = 20;
+
+    private final Overlay overlay = new Overlay();
+    private CameraBridgeViewBase cameraView;
+    private final Rect displayRect = new Rect();
+    private final Paint stroke = new Paint();
+    private final Paint fill = new Paint();
+    private final Paint text = new Paint();
+    private final Path path = new Path();
+    private final StringBuilder sb = new StringBuilder();
+
+    public OverlayView(Context context) {
+        super(context);
+        init();
+    }
+
+    public OverlayView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    private void init() {
+        stroke.setStyle(Paint.Style.STROKE);
+        stroke.setStrokeWidth(3);
+        stroke.setColor(Color.WHITE);
+        stroke.setAntiAlias(true);
+        fill.setStyle(Paint.Style.FILL);
+        fill.setAntiAlias(true);
+        text.setColor(Color.WHITE);
+        text.setAntiAlias(true);
+    }
+
+    /**
+     * @param cameraView the view that draws the frames under this overlay
+     */
+    public void setCameraView(CameraBridgeViewBase cameraView) {
+        this.cameraView = cameraView;
+    }
+
+    Overlay getOverlay() {
+        return overlay;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (cameraView == null || !cameraView.getDisplayRect(displayRect)) {
+            return;
+        }
+        synchronized (overlay) {
+            Overlay.Layer layer = overlay.getFront();
+            if (layer.frameWidth <= 0 || layer.frameHeight <= 0) {
+                return;
+            }
+            float sx = (float) displayRect.width() / layer.frameWidth;
+            float sy = (float) displayRect.height() / layer.frameHeight;
+            float left = displayRect.left;
+            float top = displayRect.top;
+
+            if (layer.noisy) {
+                text.setTextSize(LABEL_SIZE);
+                text.setColor(Color.RED);
+                canvas.drawText("TOO MUCH NOISE! ADJUST FILTER", left, top + 50, text);
+                text.setColor(Color.WHITE);
+            }
+            for (int i = 0; i < layer.count; i++) {
+                drawItem(canvas, layer, i, left, top, sx, sy);
+                drawLegend(canvas, layer, i, left, top);
+            }
+        }
+    }
+
+    private void drawItem(Canvas canvas, Overlay.Layer layer, int i, float left, float top, float sx, float sy) {
+        int[] contour = layer.contour[i];
+        int length = layer.contourLength[i];
+        if (length >= 4) {
+            path.reset();
+            path.moveTo(left + contour[0] * sx, top + contour[1] * sy);
+            for (int p = 2; p < length; p += 2) {
+                path.lineTo(left + contour[p] * sx, top + contour[p + 1] * sy);
+            }
+            path.close();
+            canvas.drawPath(path, stroke);
+        }
+        float x = left + layer.x[i] * sx;
+        float y = top + layer.y[i] * sy;
+        canvas.drawCircle(x, y, 5, stroke);
+
+        sb.setLength(0);
+        sb.append(layer.x[i]).append(" , ").append(layer.y[i]);
+        text.setTextSize(TEXT_SIZE);
+        canvas.drawText(sb, 0, sb.length(), x, y + 20, text);
+
+        sb.setLength(0);
+        sb.append(layer.name[i]);
+        if (layer.trackId[i] != Detections.NO_TRACK) {
+            sb.append(" #").append(layer.trackId[i]);
+        }
+        text.setTextSize(LABEL_SIZE);
+        canvas.drawText(sb, 0, sb.length(), x, y - 20, text);
+    }
+
+    //list of the detections in the top left corner
+    private void drawLegend(Canvas canvas, Overlay.Layer layer, int i, float left, float top) {
+        float x = left + 10;
+        float y = top + 30 + i * 30;
+        fill.setColor(layer.color[i]);
+        canvas.drawCircle(x, y, 5, fill);
+        sb.setLength(0);
+        sb.append(layer.name[i]).append(": ").append(layer.x[i]).append(", ").append(layer.y[i])
+                .append(", area: ").append((int) layer.area[i]);
+        text.setTextSize(TEXT_SIZE);
+        canvas.drawText(sb, 0, sb.length(), x + 5, y, text);
+    }
+}
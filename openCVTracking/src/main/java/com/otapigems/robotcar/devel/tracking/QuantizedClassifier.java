@@ -0,0 +1,150 @@
+/*
+    RobotCar.Devel.Tracking
+    Color based tracking of multiple objects with OpenCV on Android.
+    Copyright (C) 2018  Barnabás Nagy - otapiGems.com - otapiGems@protonmail.ch
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.otapigems.robotcar.devel.tracking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.Mat;
+
+/**
+ * Classifier over a quantized 3 channel color space, without converting the frame to HSV.
+ * Every channel is quantized to 64 levels, and a 64^3 table holds the object bits of every
+ * cell, tested with the HSV of the cell center. The subclass converts the cell centers to
+ * HSV once with OpenCV, so the test follows the conversion the HSV path does.
+ * The table is built lazily by update(), the first time the classifier is used: an engine
+ * classifying with HSV never pays for it. New objects set their bit without rebuilding the others.
+ * Writes the same label planes as HsvClassifier, so HsvClassifier.extractMask() works on them.
+ */
+abstract class QuantizedClassifier {
+    static final int BITS = 6;
+    static final int SHIFT = 8 - BITS;
+    static final int LEVELS = 1 << BITS;
+    static final int CELLS = LEVELS * LEVELS * LEVELS;
+    //value of the cell center above the cell start
+    static final int CENTER = 1 << (SHIFT - 1);
+    private static final int OBJECTS_PER_PLANE = 8;
+
+    final int[] table = new int[CELLS];
+    //HSV of the cell centers, 3 bytes per cell
+    private byte[] cellHsv;
+    //objects added so far, the first tableObjects of them have their bits in the table
+    private final List<TrackObject> objects = new ArrayList<>();
+    private int tableObjects;
+
+    final FrameWorkspace workspace;
+    private byte[][] labelBuffers = new byte[0][];
+
+    QuantizedClassifier(FrameWorkspace workspace) {
+        this.workspace = workspace;
+    }
+
+    static int cell(int c0, int c1, int c2) {
+        return ((c0 >> SHIFT) << (2 * BITS)) | ((c1 >> SHIFT) << BITS) | (c2 >> SHIFT);
+    }
+
+    /**
+     * HSV (COLOR_RGB2HSV_FULL) of the center of every cell, 3 bytes per cell in cell order.
+     * Called by the first update() with objects only, the table is not needed without them.
+     */
+    abstract byte[] convertCells();
+
+    /**
+     * Register the next object, its bits are set by the next update()
+     * @param obj object with HSVmin and HSVmax set
+     * @return index of the object, or -1 if there is no free bit left
+     */
+    int addObject(TrackObject obj) {
+        if (objects.size() >= HsvClassifier.MAX_OBJECTS) {
+            return -1;
+        }
+        objects.add(obj);
+        return objects.size() - 1;
+    }
+
+    /**
+     * Set the bits of the objects added since the last update in every cell whose center is
+     * in their HSV range, inclusive on both ends like Core.inRange. classify() calls it, call
+     * it before mask() on the processing thread, so the slot threads only read the table.
+     */
+    void update() {
+        if (tableObjects == objects.size()) {
+            return;
+        }
+        if (cellHsv == null) {
+            cellHsv = convertCells();
+        }
+        for (; tableObjects < objects.size(); tableObjects++) {
+            TrackObject obj = objects.get(tableObjects);
+            //rounded like Core.inRange and HsvClassifier do
+            double[] min = obj.getHSVmin().val;
+            double[] max = obj.getHSVmax().val;
+            double hMin = Math.rint(min[0]), hMax = Math.rint(max[0]);
+            double sMin = Math.rint(min[1]), sMax = Math.rint(max[1]);
+            double vMin = Math.rint(min[2]), vMax = Math.rint(max[2]);
+            int bit = 1 << tableObjects;
+            for (int i = 0, j = 0; i < CELLS; i++, j += 3) {
+                int h = cellHsv[j] & 0xff;
+                int s = cellHsv[j + 1] & 0xff;
+                int v = cellHsv[j + 2] & 0xff;
+                if (h >= hMin && h <= hMax && s >= sMin && s <= sMax && v >= vMin && v <= vMax) {
+                    table[i] |= bit;
+                }
+            }
+        }
+    }
+
+    void clear() {
+        Arrays.fill(table, 0);
+        objects.clear();
+        tableObjects = 0;
+    }
+
+    int planeCount() {
+        return (tableObjects + OBJECTS_PER_PLANE - 1) / OBJECTS_PER_PLANE;
+    }
+
+    /**
+     * Reused label buffers of the planes, one byte per pixel
+     */
+    byte[][] labelBuffers(int pixels) {
+        int planes = planeCount();
+        if (labelBuffers.length != planes || (planes > 0 && labelBuffers[0].length != pixels)) {
+            labelBuffers = new byte[planes][pixels];
+        }
+        return labelBuffers;
+    }
+
+    /**
+     * Split the label of pixel i into the plane buffers, for more than 8 objects
+     */
+    static void split(byte[][] buffers, int i, int label) {
+        for (int p = 0; p < buffers.length; p++) {
+            buffers[p][i] = (byte) (label >>> (p * OBJECTS_PER_PLANE));
+        }
+    }
+
+    void writePlanes() {
+        for (int p = 0; p < labelBuffers.length; p++) {
+            workspace.labelPlane(p).put(0, 0, labelBuffers[p]);
+        }
+    }
+}
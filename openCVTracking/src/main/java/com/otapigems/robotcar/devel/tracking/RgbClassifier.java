@@ -0,0 +1,94 @@
+/*
+    RobotCar.Devel.Tracking
+    Color based tracking of multiple objects with OpenCV on Android.
+    Copyright (C) 2018  Barnabás Nagy - otapiGems.com - otapiGems@protonmail.ch
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.otapigems.robotcar.devel.tracking;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Classifies RGBA pixels against all TrackObjects without converting the frame to HSV,
+ * with a table indexed by the top 6 bits of R, G and B, see QuantizedClassifier.
+ */
+class RgbClassifier extends QuantizedClassifier {
+    private byte[] rgbaBuffer;
+
+    RgbClassifier(FrameWorkspace workspace) {
+        super(workspace);
+    }
+
+    @Override
+    byte[] convertCells() {
+        byte[] rgb = new byte[CELLS * 3];
+        for (int i = 0; i < CELLS; i++) {
+            rgb[i * 3] = (byte) (((i >> (2 * BITS)) << SHIFT) + CENTER);
+            rgb[i * 3 + 1] = (byte) ((((i >> BITS) & (LEVELS - 1)) << SHIFT) + CENTER);
+            rgb[i * 3 + 2] = (byte) (((i & (LEVELS - 1)) << SHIFT) + CENTER);
+        }
+        Mat cells = new Mat(CELLS, 1, CvType.CV_8UC3);
+        cells.put(0, 0, rgb);
+        Imgproc.cvtColor(cells, cells, Imgproc.COLOR_RGB2HSV_FULL);
+        cells.get(0, 0, rgb);
+        cells.release();
+        return rgb;
+    }
+
+    /**
+     * Label each pixel of the frame with the bits of all matching objects
+     * @param rgba CV_8UC4 frame, same size as the workspace
+     */
+    void classify(Mat rgba) {
+        update();
+        int pixels = rgba.rows() * rgba.cols();
+        if (rgbaBuffer == null || rgbaBuffer.length != pixels * 4) {
+            rgbaBuffer = new byte[pixels * 4];
+        }
+        byte[][] labels = labelBuffers(pixels);
+
+        rgba.get(0, 0, rgbaBuffer);
+        if (labels.length == 1) {
+            byte[] plane = labels[0];
+            for (int i = 0, j = 0; i < pixels; i++, j += 4) {
+                plane[i] = (byte) table[cell(rgbaBuffer[j] & 0xff, rgbaBuffer[j + 1] & 0xff, rgbaBuffer[j + 2] & 0xff)];
+            }
+        } else {
+            for (int i = 0, j = 0; i < pixels; i++, j += 4) {
+                split(labels, i, table[cell(rgbaBuffer[j] & 0xff, rgbaBuffer[j + 1] & 0xff, rgbaBuffer[j + 2] & 0xff)]);
+            }
+        }
+        writePlanes();
+    }
+
+    /**
+     * Binary (0 / 255) mask of one object on an RGBA region, for the search windows.
+     * Touches only the given buffers, so the slots can call it in parallel after update().
+     * @param pixels buffer of rgba.total() * 4 bytes
+     * @param maskData buffer of rgba.total() bytes
+     */
+    void mask(Mat rgba, int objectIndex, Mat mask, byte[] pixels, byte[] maskData) {
+        int count = (int) rgba.total();
+        int bit = 1 << objectIndex;
+        rgba.get(0, 0, pixels);
+        for (int i = 0, j = 0; i < count; i++, j += 4) {
+            maskData[i] = (table[cell(pixels[j] & 0xff, pixels[j + 1] & 0xff, pixels[j + 2] & 0xff)] & bit) != 0 ? (byte) 255 : 0;
+        }
+        mask.put(0, 0, maskData);
+    }
+}
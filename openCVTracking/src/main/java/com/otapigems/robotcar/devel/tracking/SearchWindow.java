@@ -0,0 +1,127 @@
+/*
+    RobotCar.Devel.Tracking
+    Color based tracking of multiple objects with OpenCV on Android.
+    Copyright (C) 2018  Barnabás Nagy - otapiGems.com - otapiGems@protonmail.ch
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.otapigems.robotcar.devel.tracking;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+
+/**
+ * Search region of one TrackObject around its last known centroid.
+ * The window is sqrt(area) * SCALE wide, it grows with every consecutive miss and gets
+ * inactive after maxMisses misses, so the object is searched on the full frame again.
+ * The side is rounded up to GRID pixels, so the window buffers are rarely reallocated.
+ */
+class SearchWindow {
+    static final double SCALE = 4;
+    static final int GRID = 32;
+
+    final Rect rect = new Rect();
+    final Point offset = new Point();
+    //HSV and threshold of the window only
+    final Mat hsv = new Mat();
+    final Mat mask = new Mat();
+    //pixels and mask of the window for RgbClassifier
+    byte[] pixels = new byte[0];
+    byte[] maskData = new byte[0];
+
+    private boolean valid;
+    private int misses;
+    private int centerX, centerY;
+    private double area;
+
+    boolean isActive() {
+        return valid;
+    }
+
+    void found(int x, int y, double area) {
+        centerX = x;
+        centerY = y;
+        this.area = area;
+        misses = 0;
+        valid = true;
+    }
+
+    void missed(int maxMisses) {
+        misses++;
+        if (misses >= maxMisses) {
+            valid = false;
+        }
+    }
+
+    void reset() {
+        valid = false;
+        misses = 0;
+    }
+
+    /**
+     * Place the window for the next frame, clipped to the frame
+     * @return rect of the window in frame coordinates
+     */
+    Rect place(int frameWidth, int frameHeight) {
+        int side = (int) Math.ceil(Math.sqrt(area) * SCALE * (1 + misses));
+        return set(centerX, centerY, side, side, frameWidth, frameHeight);
+    }
+
+    /**
+     * Place the window over a box found on a coarse pyramid level
+     * @param box box scaled to frame coordinates
+     * @param margin pixels added on every side
+     * @return rect of the window in frame coordinates
+     */
+    Rect cover(Rect box, int margin, int frameWidth, int frameHeight) {
+        return set(box.x + box.width / 2, box.y + box.height / 2,
+                box.width + 2 * margin, box.height + 2 * margin, frameWidth, frameHeight);
+    }
+
+    private Rect set(int x, int y, int width, int height, int frameWidth, int frameHeight) {
+        rect.width = Math.min(roundUp(width), frameWidth);
+        rect.height = Math.min(roundUp(height), frameHeight);
+        rect.x = Math.max(0, Math.min(x - rect.width / 2, frameWidth - rect.width));
+        rect.y = Math.max(0, Math.min(y - rect.height / 2, frameHeight - rect.height));
+        //even, so the window starts on a chroma sample of 4:2:0 frames
+        rect.x &= ~1;
+        rect.y &= ~1;
+        offset.x = rect.x;
+        offset.y = rect.y;
+        return rect;
+    }
+
+    /**
+     * Size the RgbClassifier buffers for the current rect
+     */
+    void ensureBuffers() {
+        int count = rect.width * rect.height;
+        if (maskData.length < count) {
+            pixels = new byte[count * 4];
+            maskData = new byte[count];
+        }
+    }
+
+    private static int roundUp(int side) {
+        return Math.max(GRID, ((side + GRID - 1) / GRID) * GRID);
+    }
+
+    void release() {
+        hsv.release();
+        mask.release();
+        reset();
+    }
+}
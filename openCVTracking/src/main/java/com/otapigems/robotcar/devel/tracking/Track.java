@@ -0,0 +1,166 @@
+/*
+    RobotCar.Devel.Tracking
+    Color based tracking of multiple objects with OpenCV on Android.
+    Copyright (C) 2018  Barnabás Nagy - otapiGems.com - otapiGems@protonmail.ch
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.otapigems.robotcar.devel.tracking;
+
+/**
+ * One tracked occurrence of a TrackObject with a persistent id.
+ * The position is filtered with a constant velocity Kalman filter. The x and y axes do not
+ * depend on each other in this model, so the 4 state filter is done as two 2 state filters
+ * in plain Java, without JNI calls and Mats per track and frame.
+ * Tracks are pooled by the engine and reused, copy what is needed before the next frame.
+ */
+public class Track {
+    //measurement noise of the centroid, in pixels
+    static final double MEASUREMENT_SIGMA = 3;
+    //process noise, random acceleration in pixels / s^2
+    static final double ACCELERATION_SIGMA = 400;
+    //uncertainty of the velocity of a new track, in pixels / s
+    static final double INITIAL_VELOCITY_SIGMA = 250;
+
+    /**
+     * Position and velocity along one axis with their covariance
+     */
+    static class Axis {
+        double position, velocity;
+        double p00, p01, p11;
+
+        void start(double z) {
+            position = z;
+            velocity = 0;
+            p00 = MEASUREMENT_SIGMA * MEASUREMENT_SIGMA;
+            p01 = 0;
+            p11 = INITIAL_VELOCITY_SIGMA * INITIAL_VELOCITY_SIGMA;
+        }
+
+        void predict(double dt) {
+            double q = ACCELERATION_SIGMA * ACCELERATION_SIGMA;
+            double dt2 = dt * dt;
+            position += velocity * dt;
+            p00 += 2 * dt * p01 + dt2 * p11 + q * dt2 * dt2 / 4;
+            p01 += dt * p11 + q * dt2 * dt / 2;
+            p11 += q * dt2;
+        }
+
+        //variance of the innovation
+        double innovation() {
+            return p00 + MEASUREMENT_SIGMA * MEASUREMENT_SIGMA;
+        }
+
+        void correct(double z) {
+            double s = innovation();
+            double k0 = p00 / s;
+            double k1 = p01 / s;
+            double y = z - position;
+            position += k0 * y;
+            velocity += k1 * y;
+            p11 -= k1 * p01;
+            p00 *= 1 - k0;
+            p01 *= 1 - k0;
+        }
+    }
+
+    final Axis x = new Axis();
+    final Axis y = new Axis();
+    private int id;
+    private int objectId;
+    private double area;
+    private int hits;
+    private int misses;
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return index of the tracked object, see TrackingEngine.getObjects()
+     */
+    public int getObjectId() {
+        return objectId;
+    }
+
+    //filtered position in frame coordinates, the prediction if the last frame missed
+    public double getX() {
+        return x.position;
+    }
+
+    public double getY() {
+        return y.position;
+    }
+
+    //velocity in pixels / s
+    public double getVelocityX() {
+        return x.velocity;
+    }
+
+    public double getVelocityY() {
+        return y.velocity;
+    }
+
+    //area of the last detection
+    public double getArea() {
+        return area;
+    }
+
+    //number of frames the track was detected
+    public int getHits() {
+        return hits;
+    }
+
+    //number of consecutive frames the track was not detected
+    public int getMisses() {
+        return misses;
+    }
+
+    void start(int id, int objectId, double px, double py, double area) {
+        this.id = id;
+        this.objectId = objectId;
+        this.area = area;
+        x.start(px);
+        y.start(py);
+        hits = 1;
+        misses = 0;
+    }
+
+    void predict(double dt) {
+        x.predict(dt);
+        y.predict(dt);
+    }
+
+    /**
+     * Squared Mahalanobis distance of a detection from the predicted position
+     */
+    double distance(double px, double py) {
+        double dx = px - x.position;
+        double dy = py - y.position;
+        return dx * dx / x.innovation() + dy * dy / y.innovation();
+    }
+
+    void correct(double px, double py, double area) {
+        x.correct(px);
+        y.correct(py);
+        this.area = area;
+        hits++;
+        misses = 0;
+    }
+
+    void missed() {
+        misses++;
+    }
+}
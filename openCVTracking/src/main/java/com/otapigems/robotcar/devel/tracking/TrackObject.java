@@ -28,6 +28,9 @@ public class TrackObject {
     private Scalar Color;
     private double Area;
     private int HierarchyIndex;
+    //morphology of the threshold mask, see Morphology
+    private int ErodeIterations = 2;
+    private int DilateIterations = 2;
 
     public TrackObject()
     {
@@ -114,4 +117,29 @@ public class TrackObject {
     public void setHierarchyIndex(int hierarchyIndex) {
         HierarchyIndex = hierarchyIndex;
     }
+    public int getErodeIterations() {
+        return ErodeIterations;
+    }
+    /**
+     * @param erodeIterations 0..Morphology.MAX_ITERATIONS 3x3 erosions
+     */
+    public void setErodeIterations(int erodeIterations) {
+        ErodeIterations = checkIterations(erodeIterations);
+    }
+    public int getDilateIterations() {
+        return DilateIterations;
+    }
+    /**
+     * @param dilateIterations 0..Morphology.MAX_ITERATIONS 8x8 dilations
+     */
+    public void setDilateIterations(int dilateIterations) {
+        DilateIterations = checkIterations(dilateIterations);
+    }
+
+    private static int checkIterations(int iterations) {
+        if (iterations < 0 || iterations > Morphology.MAX_ITERATIONS) {
+            throw new IllegalArgumentException("Iterations must be 0.." + Morphology.MAX_ITERATIONS + ": " + iterations);
+        }
+        return iterations;
+    }
 }
@@ -19,36 +19,29 @@
 
 package com.otapigems.robotcar.devel.tracking;
 
+import android.graphics.ImageFormat;
+import android.os.SystemClock;
 import android.util.Log;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import org.opencv.core.Core;
-import org.opencv.core.CvType;
+import org.opencv.android.CameraBridgeViewBase.CvCameraViewFrame;
+import org.opencv.android.LatencyMetrics;
+import org.opencv.android.ResolutionGovernor;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfPoint;
 import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
 import org.opencv.core.Point;
-import org.opencv.core.Size;
-import org.opencv.imgproc.Moments;
 
 import org.opencv.imgproc.Imgproc;
 
-import static org.opencv.imgproc.Imgproc.MORPH_RECT;
 import static org.opencv.imgproc.Imgproc.cvtColor;
-import static org.opencv.imgproc.Imgproc.moments;
 
+/**
+ * Android side of the tracking: calibration and tracking UI states, debug views and
+ * annotations on the camera frame. The tracking itself is done by TrackingEngine.
+ */
 public class Tracking {
     private static final String  TAG = "Tracking";
 
-    //max number of objects to be detected in frame
-    final int MAX_NUM_OBJECTS=50;
-    //minimum and maximum object area
-    final int MIN_OBJECT_AREA = 15*15;
-
-    Mat HSV, threshold;
     public UIStates UIState;
     public enum UIStates {
         CALIBRATION,
@@ -68,209 +61,332 @@ public class Tracking {
         }
     }
     public ViewTypes viewTypes;
-    List<TrackObject> objects;
-    ArrayList<TrackObject> objectOccurencies;
+    //draw the outline of the objects, with CONNECTED_COMPONENTS it costs a findContours per object
+    public boolean drawContours = true;
+    //track on the NV21 camera frame, the RGBA frame is only used for the display
+    public boolean trackNv21 = true;
+    //fraction of outlier pixels left out on both ends of the calibrated HSV ranges
+    public double calibrationTrim = HsvCalibration.DEFAULT_TRIM;
+    //minimum time between two refreshes of the overlay view
+    public long overlayIntervalMs = 100;
+    //draws the annotations when set, see setOverlayView
+    private OverlayView overlayView;
+    private long lastOverlayNanos;
+    //samples collected for the next addTrackObject
+    private final HsvCalibration calibration = new HsvCalibration();
+    //detections of the last frame, reused by the engine
+    Detections objectOccurencies;
+    TrackingEngine engine;
+    //resolution level of the camera view, null to keep the engine settings
+    private ResolutionGovernor governor;
+    //returned for display, the views and annotations are drawn on it, never on the camera
+    //frame, whose RGBA and derived images are shared with the other consumers of the frame
+    private final Mat display = new Mat();
+    //clean copy of the last frame in CALIBRATION, taken on the camera thread and sampled
+    //on the UI thread, without the selection drawn on the display. Guarded by itself.
+    private final Mat calibrationFrame = new Mat();
+    //frame number of the frames given as a Mat, they carry none
+    private long matSequence;
+    //camera frame being processed, its cached pyramid and HSV images are shared with the engine
+    private CvCameraViewFrame sharedFrame;
+    private final TrackingEngine.SharedImages frameImages = new TrackingEngine.SharedImages() {
+        @Override
+        public Mat pyramid(int level) {
+            return sharedFrame.pyramid(level);
+        }
+
+        @Override
+        public Mat hsv(int level) {
+            return sharedFrame.hsv(level);
+        }
+    };
 
     public Tracking() {
-        objects = new ArrayList<>();
-        objectOccurencies = new ArrayList<>();
+        engine = new TrackingEngine();
+        objectOccurencies = new Detections(0);
         UIState = UIStates.CALIBRATION;
         viewTypes = ViewTypes.RGB;
     }
-    String intToString(int number){
-        return Integer.toString(number);
+
+    public TrackingEngine getEngine() {
+        return engine;
     }
 
-    void drawObject(TrackObject obj, Mat frame, List<MatOfPoint> contours, Mat hierarchy){
-        //Scalar color = obj.getColor();
-        Scalar color = new Scalar(255, 255, 255);
+    /**
+     * Follow the resolution level of the camera view: the part of the level the camera does not
+     * apply is added to the pyramid level of the engine, and the area threshold is scaled to the
+     * camera resolution. The pyramidLevel and areaScale set on the engine are kept as the base.
+     * @param governor governor of the camera view, null to keep the engine settings
+     */
+    public void setResolutionGovernor(ResolutionGovernor governor) {
+        this.governor = governor;
+        if (governor == null) {
+            engine.setResolution(0, 1);
+        }
+    }
 
-        Imgproc.drawContours(frame,contours,obj.getHierarchyIndex(),color,3,8,hierarchy, 1, new Point(0, 0));
-        Imgproc.circle(frame,new Point(obj.getXPos(),obj.getYPos()),5,color);
-        Imgproc.putText(frame,intToString(obj.getXPos())+ " , " + intToString(obj.getYPos()),new Point(obj.getXPos(),obj.getYPos()+20),1,1,color);
-        Imgproc.putText(frame,obj.getName(),new Point(obj.getXPos(),obj.getYPos()-20),1,2,color);
+    private void applyGovernor() {
+        if (governor != null) {
+            engine.setResolution(governor.getPyramidLevel(), governor.getAreaScale());
+        }
     }
 
-    void morphOps(Mat thresh){
+    /**
+     * Size the per-frame buffers, call it when the camera preview starts
+     * @param width width of the frames
+     * @param height height of the frames
+     */
+    public void onCameraViewStarted(int width, int height) {
+        engine.start(width, height);
+    }
 
-        //create structuring element that will be used to "dilate" and "erode" image.
-        //the element chosen here is a 3px by 3px rectangle
+    /**
+     * Release the per-frame buffers, call it when the camera preview stops
+     */
+    public void onCameraViewStopped() {
+        engine.stop();
+        display.release();
+        synchronized (calibrationFrame) {
+            calibrationFrame.release();
+        }
+    }
 
-        Mat erodeElement = Imgproc.getStructuringElement( MORPH_RECT, new Size(3,3));
-        //dilate with larger element so make sure object is nicely visible
-        Mat dilateElement = Imgproc.getStructuringElement( MORPH_RECT, new Size(8,8));
+    /**
+     * Number of native Mats allocated by the per-frame workspace so far, see
+     * TrackingEngine.getWorkspaceAllocationCount() for what it does not cover
+     */
+    public int getWorkspaceAllocationCount() {
+        return engine.getWorkspaceAllocationCount();
+    }
 
-        Imgproc.erode(thresh,thresh,erodeElement);
-        Imgproc.erode(thresh,thresh,erodeElement);
+    /**
+     * Draw the annotations on an overlay view instead of the camera frame. The overlay is
+     * refreshed every overlayIntervalMs, so the tracking thread does not render text.
+     * @param view null to draw into the frame again
+     */
+    public void setOverlayView(OverlayView view) {
+        overlayView = view;
+        lastOverlayNanos = 0;
+    }
 
-        Imgproc.dilate(thresh,thresh,dilateElement);
-        Imgproc.dilate(thresh,thresh,dilateElement);
+    public boolean hasOverlay() {
+        return overlayView != null;
     }
 
-    void trackFilteredObject(TrackObject theObject, Mat threshold, Mat cameraFeed){
-
-        //these two vectors needed for output of findContours
-        List<MatOfPoint> contours = new ArrayList<>();
-        Mat hierarchy = new Mat();
-        //find contours of filtered image using openCV findContours function
-        Mat temp = new Mat();
-        threshold.copyTo(temp);
-        Imgproc.findContours(temp,contours,hierarchy,Imgproc.RETR_CCOMP,Imgproc.CHAIN_APPROX_SIMPLE );
-        //use moments method to find our filtered object
-        double refArea = 0;
-        ArrayList<TrackObject> localObjectOccurencies = new ArrayList<>();
-        if (hierarchy.size().height > 0 && hierarchy.size().width > 0) {
-            int numObjects = contours.size();
-            //if number of objectOccurencies greater than MAX_NUM_OBJECTS we have a noisy filter
-            if (numObjects < MAX_NUM_OBJECTS) {
-                for (int index = 0; index >= 0; index = (int) hierarchy.get(0, index)[0]) {
-
-                    Moments moment = moments(contours.get(index));
-                    double area = moment.m00;
-
-                    //if the area is less than 20 px by 20px then it is probably just noise
-                    //if the area is the same as the 3/2 of the image size, probably just a bad filter
-                    //we only want the object with the largest area so we safe a reference area each
-                    //iteration and compare it to the area in the next iteration.
-                    //if number of objectOccurencies greater than MAX_NUM_OBJECTS we have a noisy filter
-                    if (area > MIN_OBJECT_AREA && area<(cameraFeed.rows()*cameraFeed.cols()/1.5) && area>refArea && objectOccurencies.size()<MAX_NUM_OBJECTS ) {
-
-                        TrackObject trackObject = new TrackObject();
-
-                        trackObject.setXPos((int) Math.round(moment.m10 / area));
-                        trackObject.setYPos((int) Math.round(moment.m01 / area));
-                        trackObject.setName(theObject.getName());
-                        trackObject.setColor(theObject.getColor());
-                        trackObject.setArea(area);
-                        trackObject.setHierarchyIndex(index);
-
-                        localObjectOccurencies.add(trackObject);
-                        refArea = area;
-                    }
-                }
+    /**
+     * Record the results for the overlay view if its refresh is due
+     * @param result null to clear the overlay
+     */
+    private void updateOverlay(TrackingResult result, Mat cameraFeed) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        if (lastOverlayNanos != 0 && now - lastOverlayNanos < overlayIntervalMs * 1000000L) {
+            return;
+        }
+        lastOverlayNanos = now;
+        Overlay overlay = overlayView.getOverlay();
+        overlay.record(result, cameraFeed.cols(), cameraFeed.rows(), drawContours);
+        overlay.publish();
+        overlayView.postInvalidate();
+    }
 
+    /**
+     * Draw the debug view and the results of all objects in object order
+     * @return the display frame
+     */
+    private Mat drawResult(TrackingResult result, Mat cameraFeed) {
+        if (viewTypes == ViewTypes.HSV) {
+            cvtColor(engine.getHsv(), display, Imgproc.COLOR_RGB2RGBA);
+        } else if (viewTypes == ViewTypes.Eroded && !result.slots.isEmpty()) {
+            //keep the RGBA type of the frame, so the buffer is not reallocated
+            cvtColor(engine.getMask(result.slots.size() - 1), display, Imgproc.COLOR_GRAY2RGBA);
+        } else {
+            cameraFeed.copyTo(display);
+        }
+        long start = System.nanoTime();
+        if (overlayView != null) {
+            updateOverlay(result, display);
+        } else {
+            drawAnnotations(result, display);
+        }
+        engine.getMetrics().stop(LatencyMetrics.Stage.DRAWING, start);
+        return display;
+    }
 
-            } else {
-                Imgproc.putText(cameraFeed, "TOO MUCH NOISE! ADJUST FILTER", new Point(0, 50), 1, 2, new Scalar(0, 0, 255), 2);
+    private void drawAnnotations(TrackingResult result, Mat cameraFeed) {
+        if (result.isNoisy()) {
+            Imgproc.putText(cameraFeed, "TOO MUCH NOISE! ADJUST FILTER", new Point(0, 50), 1, 2, new Scalar(0, 0, 255), 2);
+        }
+        int drawn = 0;
+        for (ObjectSlot slot : result.slots) {
+            Detections occurrences = slot.occurrences;
+            for (int i = 0; i < occurrences.size(); i++) {
+                if (drawn++ >= TrackingEngine.MAX_NUM_OBJECTS) {
+                    return;
+                }
+                Annotations.drawObject(occurrences, i, slot.object.getName(), cameraFeed, slot.contours, slot.hierarchy);
             }
         }
+    }
 
-        for(TrackObject obj : localObjectOccurencies) {
-            drawObject(obj, cameraFeed, contours,hierarchy);
+    private boolean isDebugView() {
+        return viewTypes == ViewTypes.HSV || viewTypes == ViewTypes.Eroded;
+    }
+
+    /**
+     * Track on the camera frame and draw the results on a copy of its RGBA frame
+     * @return the display frame, the caller may draw on it until the next frame
+     */
+    Mat onCameraFrame(CvCameraViewFrame inputFrame) {
+        applyGovernor();
+        //the debug views need the HSV frame and the masks of the RGBA path
+        if (UIState != UIStates.TRACKING || !trackNv21 || isDebugView()
+                || inputFrame.previewFormat() != ImageFormat.NV21) {
+            sharedFrame = inputFrame;
+            try {
+                return onCameraFrame(inputFrame.rgba(), frameImages, captureTime(inputFrame), inputFrame.sequence());
+            } finally {
+                sharedFrame = null;
+            }
         }
-        objectOccurencies.addAll(localObjectOccurencies);
+        Mat yuv = inputFrame.yuv();
+        engine.keepDebugBuffers = false;
+        engine.keepContours = drawContours;
+        //the Y plane header of the frame is created once per frame buffer
+        TrackingResult result = engine.processNv21(yuv, inputFrame.gray(),
+                captureTime(inputFrame), inputFrame.sequence());
+        objectOccurencies = result.getDetections();
+        return drawResult(result, inputFrame.rgba());
     }
 
     Mat onCameraFrame(Mat cameraFeed) {
+        applyGovernor();
+        return onCameraFrame(cameraFeed, null, SystemClock.elapsedRealtimeNanos(), matSequence++);
+    }
+
+    //the capture time of the camera view if it reports one, the time of arrival otherwise
+    private static long captureTime(CvCameraViewFrame frame) {
+        long timestamp = frame.timestamp();
+        return timestamp > 0 ? timestamp : SystemClock.elapsedRealtimeNanos();
+    }
+
+    private Mat onCameraFrame(Mat cameraFeed, TrackingEngine.SharedImages images, long timestamp, long sequence) {
         if (cameraFeed.empty()) {
             return cameraFeed;
         }
 
         switch (UIState) {
             case CALIBRATION:
-                break;
-            case TRACKING:
-                objectOccurencies = new ArrayList<>();
-
-                HSV = new Mat();
-                cvtColor(cameraFeed,HSV,Imgproc.COLOR_RGB2HSV_FULL);
-
-                for (TrackObject trackObject : objects) {
-                    //convert frame from RGB to HSV colorspace
-                    threshold = new Mat();
-                    Core.inRange(HSV, trackObject.getHSVmin(),trackObject.getHSVmax(),threshold);
-                    morphOps(threshold);
-                    if (viewTypes == ViewTypes.Eroded) {
-                        threshold.copyTo(cameraFeed);
-                    }
-                    trackFilteredObject(trackObject,threshold,cameraFeed);
-                    threshold.release();
+                synchronized (calibrationFrame) {
+                    cameraFeed.copyTo(calibrationFrame);
                 }
-
-                if (viewTypes == ViewTypes.HSV) {
-                    HSV.copyTo(cameraFeed);
+                if (overlayView != null) {
+                    updateOverlay(null, cameraFeed);
                 }
-                HSV.release();
                 break;
+            case TRACKING:
+                //the debug views need the full frame HSV and masks
+                engine.keepDebugBuffers = isDebugView();
+                engine.keepContours = drawContours;
+                TrackingResult result = engine.process(cameraFeed, images, timestamp, sequence);
+                objectOccurencies = result.getDetections();
+                return drawResult(result, cameraFeed);
             default:
         }
-                return cameraFeed;
+        //the caller draws the selection on it
+        cameraFeed.copyTo(display);
+        return display;
     }
 
 
     /**
-     * Automatically tune an HSV filter for the given frame and as new TrackObject
+     * Collect a selected region for the next addTrackObject, e.g. the same object in other light
+     * @param touchedRegionRgba Selected image RGBA, released
+     */
+    public void addCalibrationSample(Mat touchedRegionRgba) {
+        calibration.addSample(touchedRegionRgba);
+        touchedRegionRgba.release();
+        Log.i(TAG, "Calibration samples: " + calibration.getPixelCount() + " pixels");
+    }
+
+    /**
+     * Collect a region of the last camera frame for the next addTrackObject
+     * @param rectangleROI selected rectangle of the frame
+     * @return false if there is no frame in CALIBRATION yet or the rectangle is outside of it
+     */
+    public boolean addCalibrationSample(Rect rectangleROI) {
+        if (!sampleCalibrationFrame(rectangleROI)) {
+            return false;
+        }
+        Log.i(TAG, "Calibration samples: " + calibration.getPixelCount() + " pixels");
+        return true;
+    }
+
+    /**
+     * Same as addTrackObject(name, rectangleROI, touchedRegionRgba), with the region of the
+     * last camera frame received in CALIBRATION
+     * @return name of the object, or null if there is no frame, no pixels were sampled or
+     * there are too many objects
+     */
+    public String addTrackObject(String name, Rect rectangleROI) {
+        if (!sampleCalibrationFrame(rectangleROI)) {
+            return null;
+        }
+        return createTrackObject(name);
+    }
+
+    //add the region of the calibration frame to the histograms, on the caller thread
+    private boolean sampleCalibrationFrame(Rect rectangleROI) {
+        synchronized (calibrationFrame) {
+            if (calibrationFrame.empty() || rectangleROI.x < 0 || rectangleROI.y < 0
+                    || rectangleROI.x + rectangleROI.width > calibrationFrame.cols()
+                    || rectangleROI.y + rectangleROI.height > calibrationFrame.rows()) {
+                Log.w(TAG, "No camera frame under the selection " + rectangleROI);
+                return false;
+            }
+            Mat region = calibrationFrame.submat(rectangleROI);
+            calibration.addSample(region);
+            region.release();
+        }
+        return true;
+    }
+
+    /**
+     * Automatically tune an HSV filter for the given frame and as new TrackObject.
+     * The samples collected by addCalibrationSample are merged into the filter.
      * @param name optional. If null, it will give an order number
      * @param rectangleROI Selected rectangle
      * @param touchedRegionRgba Selected image RGBA
-     * @return name of the object
+     * @return name of the object, or null if no pixels were sampled or there are too many objects
      */
     public String addTrackObject(String name, Rect rectangleROI, Mat touchedRegionRgba) {
+        Log.i(TAG, "touchedRegionRgba: cols="+touchedRegionRgba.cols()+", rows="+touchedRegionRgba.rows());
+        calibration.addSample(touchedRegionRgba);
+        touchedRegionRgba.release();
+        return createTrackObject(name);
+    }
 
+    //tune the filter of a new object from the collected samples and start tracking it
+    private String createTrackObject(String name) {
         String n = name;
         if (n == null) {
-            n = "Obj "+objects.size();
+            n = "Obj "+engine.getObjectCount();
         };
-        Log.i(TAG, "touchedRegionRgba: cols="+touchedRegionRgba.cols()+", rows="+touchedRegionRgba.rows());
-
-        Mat touchedRegionHsv = new Mat();
-        Imgproc.cvtColor(touchedRegionRgba, touchedRegionHsv, Imgproc.COLOR_RGB2HSV_FULL);
-
-        // Calculate average color of touched region
-        Scalar mBlobColorHsv = Core.sumElems(touchedRegionHsv);
-        int pointCount = rectangleROI.width*rectangleROI.height;
-        for (int i = 0; i < mBlobColorHsv.val.length; i++)
-            mBlobColorHsv.val[i] /= pointCount;
-
-        Scalar mBlobColorRgba = convertScalarHsv2Rgba(mBlobColorHsv);
-
+        TrackObject trackObject = calibration.toTrackObject(n, calibrationTrim);
+        calibration.clear();
+        if (trackObject == null) {
+            Log.w(TAG, "No calibration pixels, the selection is empty");
+            return null;
+        }
+        Log.i(TAG, "HSV range: " + trackObject.getHSVmin() + " - " + trackObject.getHSVmax());
+        Scalar mBlobColorRgba = trackObject.getColor();
         Log.i(TAG, "Touched rgba color: (" + mBlobColorRgba.val[0] + ", " + mBlobColorRgba.val[1] +
                 ", " + mBlobColorRgba.val[2] + ", " + mBlobColorRgba.val[3] + ")");
 
-        int H_MIN = 256;
-        int H_MAX = 0;
-        int S_MIN = 256;
-        int S_MAX = 0;
-        int V_MIN = 256;
-        int V_MAX = 0;
-
-        // find min and max values inside the selected section
-        for(int row=1;row<touchedRegionHsv.rows();row++) {
-            for(int col=1;col<touchedRegionHsv.cols();col++) {
-                double[] val = touchedRegionHsv.get(row, col);
-                if (val[0]<H_MIN) {
-                    H_MIN = (int) val[0];
-                }
-                if (val[0]>H_MAX) {
-                    H_MAX = (int) val[0];
-                }
-                if (val[1]<S_MIN) {
-                    S_MIN = (int) val[1];
-                }
-                if (val[1]>S_MAX) {
-                    S_MAX = (int) val[1];
-                }
-                if (val[2]<V_MIN) {
-                    V_MIN = (int) val[2];
-                }
-                if (val[2]>V_MAX) {
-                    V_MAX = (int) val[2];
-                }
-            }
+        if (engine.addObject(trackObject) < 0) {
+            Log.w(TAG, "Too many objects, max is " + HsvClassifier.MAX_OBJECTS);
+            return null;
         }
-
-        objects.add(new TrackObject(n, new Scalar(H_MIN, S_MIN, V_MIN), new Scalar(H_MAX, S_MAX, V_MAX), mBlobColorRgba));
-        touchedRegionRgba.release();
-        touchedRegionHsv.release();
         UIState = UIStates.TRACKING;
         return n;
     }
-
-    private Scalar convertScalarHsv2Rgba(Scalar hsvColor) {
-        Mat pointMatRgba = new Mat();
-        Mat pointMatHsv = new Mat(1, 1, CvType.CV_8UC3, hsvColor);
-        Imgproc.cvtColor(pointMatHsv, pointMatRgba, Imgproc.COLOR_HSV2RGB_FULL, 4);
-
-        return new Scalar(pointMatRgba.get(0, 0));
-    }
 }
@@ -23,6 +23,7 @@ import org.opencv.android.BaseLoaderCallback;
 import org.opencv.android.CameraBridgeViewBase.CvCameraViewFrame;
 import org.opencv.android.LoaderCallbackInterface;
 import org.opencv.android.OpenCVLoader;
+import org.opencv.android.ResolutionGovernor;
 import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
@@ -46,9 +47,12 @@ import android.view.SurfaceView;
 public class TrackingActivity extends Activity implements OnTouchListener, CvCameraViewListener2 {
     private static final String  TAG              = "Tracking::Activity";
     private static final int TOUCHED_AREA = 200;
+    //processing time of a frame for 15 fps
+    private static final long FRAME_BUDGET_NANOS = 66000000L;
     private Mat mRgba;
     private Tracking tracking;
     private CameraBridgeViewBase mOpenCvCameraView;
+    private OverlayView mOverlayView;
     private Rect selectRect = null;
 
     private BaseLoaderCallback  mLoaderCallback = new BaseLoaderCallback(this) {
@@ -86,6 +90,10 @@ public class TrackingActivity extends Activity implements OnTouchListener, CvCam
         mOpenCvCameraView = (CameraBridgeViewBase) findViewById(R.id.color_blob_detection_activity_surface_view);
         mOpenCvCameraView.setVisibility(SurfaceView.VISIBLE);
         mOpenCvCameraView.setCvCameraViewListener(this);
+        mOverlayView = (OverlayView) findViewById(R.id.tracking_overlay_view);
+        mOverlayView.setCameraView(mOpenCvCameraView);
+        //lower the resolution instead of the frame rate when the scene gets busy
+        mOpenCvCameraView.setResolutionGovernor(new ResolutionGovernor(FRAME_BUDGET_NANOS, TrackingEngine.MAX_PYRAMID_LEVEL));
 
     }
 
@@ -121,17 +129,30 @@ public class TrackingActivity extends Activity implements OnTouchListener, CvCam
         mRgba = new Mat(height, width, CvType.CV_8UC4);
         selectRect = new Rect();
 
-        // Set it to a square, not to a rectangle
-        selectRect.width = TOUCHED_AREA;
-        selectRect.height = TOUCHED_AREA;
+        // Set it to a square, not to a rectangle, that fits the smaller frames of the governor too
+        selectRect.width = Math.min(TOUCHED_AREA, Math.min(width, height));
+        selectRect.height = selectRect.width;
 
         selectRect.x = (width / 2) - (selectRect.width/2);
         selectRect.y = (height / 2)- (selectRect.height/2);
 
-        tracking = new Tracking();
+        //the governor restarts the camera at another size, keep the calibrated objects
+        if (tracking == null) {
+            tracking = new Tracking();
+            //targets move only a few pixels between frames
+            tracking.getEngine().searchMode = TrackingEngine.SearchModes.WINDOWED;
+            tracking.getEngine().useTracker = true;
+            tracking.getEngine().detectionInterval = 3;
+            tracking.setOverlayView(mOverlayView);
+            //one registry for the camera and the tracking stages, see enableMetricsHud
+            tracking.getEngine().setMetrics(mOpenCvCameraView.getLatencyMetrics());
+            tracking.setResolutionGovernor(mOpenCvCameraView.getResolutionGovernor());
+        }
+        tracking.onCameraViewStarted(width, height);
     }
 
     public void onCameraViewStopped() {
+        tracking.onCameraViewStopped();
         mRgba.release();
     }
 
@@ -139,7 +160,8 @@ public class TrackingActivity extends Activity implements OnTouchListener, CvCam
 
         switch (tracking.UIState) {
             case CALIBRATION:
-                tracking.addTrackObject(null, selectRect, mRgba.submat(selectRect));
+                //sampled from a clean copy of the camera frame, mRgba has the selection drawn on it
+                tracking.addTrackObject(null, selectRect);
                 break;
             case TRACKING:
                 int cols = mRgba.cols();
@@ -168,9 +190,8 @@ public class TrackingActivity extends Activity implements OnTouchListener, CvCam
 
 
     public Mat onCameraFrame(CvCameraViewFrame inputFrame) {
-        mRgba = inputFrame.rgba();
-
-        Mat ret = tracking.onCameraFrame(mRgba);
+        Mat ret = tracking.onCameraFrame(inputFrame);
+        mRgba = ret;
         switch (tracking.UIState) {
             case CALIBRATION:
                 Scalar color = AverageRgbaColorOfRect(ret,selectRect);
@@ -179,14 +200,18 @@ public class TrackingActivity extends Activity implements OnTouchListener, CvCam
                         ", " + color.val[2] + ", " + color.val[3], new Point(selectRect.tl().x, selectRect.tl().y-10),1, 2, color, 2);
                 break;
             case TRACKING:
-                int i=0;
-                for(TrackObject obj : tracking.objectOccurencies){
+                if (tracking.hasOverlay()) {
+                    //the overlay view draws the list
+                    break;
+                }
+                Detections detections = tracking.objectOccurencies;
+                for(int i=0;i<detections.size();i++){
+                    TrackObject obj = tracking.getEngine().getObjects().get(detections.getObjectId(i));
                     int x = 10;
                     int y = 30+i*30;
                     Imgproc.circle(ret,new Point(x, y),5,obj.getColor());
-                    String text = obj.getName()+": "+obj.getXPos()+", "+obj.getYPos()+", area: "+obj.getArea();
+                    String text = obj.getName()+": "+detections.getX(i)+", "+detections.getY(i)+", area: "+detections.getArea(i);
                     Imgproc.putText(ret, text, new Point(x+5, y), 1, 2, new Scalar(255, 255, 255),2);
-                    i++;
                 }
                 break;
             default:
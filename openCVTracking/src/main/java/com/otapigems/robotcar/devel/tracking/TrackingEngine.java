@@ -0,0 +1,850 @@
+/*
+    RobotCar.Devel.Tracking
+    Color based tracking of multiple objects with OpenCV on Android. Platform independent engine.
+    Copyright (C) 2018  Barnabás Nagy - otapiGems.com - otapiGems@protonmail.ch
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.otapigems.robotcar.devel.tracking;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opencv.android.LatencyMetrics;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.imgproc.Moments;
+
+import static org.opencv.imgproc.Imgproc.cvtColor;
+import static org.opencv.imgproc.Imgproc.moments;
+
+/**
+ * Color based multi object tracker without any Android framework dependency, so it runs (and
+ * can be benchmarked and tested) on a plain JVM with the OpenCV Java bindings. LatencyMetrics
+ * comes from the OpenCV library module but is plain Java, the benchmark compiles it too.
+ * Feed it RGBA frames with process(), it returns the detections of the frame. The frames are
+ * processed on one thread, objects may be added from any other thread.
+ */
+public class TrackingEngine {
+    private static final Point ORIGIN = new Point(0, 0);
+
+    //max number of objects to be detected in frame
+    static final int MAX_NUM_OBJECTS=50;
+    //minimum and maximum object area
+    static final int MIN_OBJECT_AREA = 15*15;
+    static final int MAX_PYRAMID_LEVEL = 2;
+
+    public enum SearchModes {
+        //search every object on the whole frame
+        FULL_FRAME,
+        //search around the last position, full frame only after searchMaxMisses misses
+        WINDOWED
+    }
+    public enum ExecutionModes {
+        //process the objects one after the other on the caller thread
+        SERIAL,
+        //process the objects on a worker pool with one thread per CPU
+        PARALLEL
+    }
+    public enum BlobExtractors {
+        //findContours and moments of every contour
+        CONTOURS,
+        //connectedComponentsWithStats, area, box and centroid of all blobs in one call
+        CONNECTED_COMPONENTS
+    }
+    public enum ColorClassifiers {
+        //convert the frame to HSV and test the HSV ranges
+        HSV,
+        //look up the objects of every RGB pixel in a quantized table, no HSV conversion
+        RGB_LUT
+    }
+    /**
+     * Derived images of the frame computed and cached by someone else, e.g. the camera frame,
+     * so the engine does not convert the frame again
+     */
+    public interface SharedImages {
+        /**
+         * @return the RGBA frame halved level times with pyrDown
+         */
+        Mat pyramid(int level);
+
+        /**
+         * @return pyramid(level) converted with COLOR_RGB2HSV_FULL
+         */
+        Mat hsv(int level);
+    }
+
+    public SearchModes searchMode = SearchModes.FULL_FRAME;
+    public int searchMaxMisses = 5;
+    //detect on a pyrDown level (0: full, 1: half, 2: quarter resolution) and refine
+    //the centroid and area at full resolution inside the box found there. The level of
+    //setResolution() is added to it.
+    public int pyramidLevel = 0;
+    public ExecutionModes executionMode = ExecutionModes.SERIAL;
+    //keep the full resolution HSV frame and object masks, for the debug views
+    public boolean keepDebugBuffers = false;
+    public BlobExtractors blobExtractor = BlobExtractors.CONTOURS;
+    //the HSV debug view always uses HSV
+    public ColorClassifiers colorClassifier = ColorClassifiers.HSV;
+    //with CONNECTED_COMPONENTS, find the contours of the occurrences too, for the overlay
+    public boolean keepContours = true;
+    //follow the occurrences between frames with Kalman filtered tracks, keeps every blob
+    //instead of the largest ones and places the search windows on the predicted positions.
+    //An object has at most KalmanTracker.MAX_TRACKS (8) tracks, more occurrences than that
+    //in a frame get Detections.NO_TRACK.
+    public boolean useTracker = false;
+    //run the full detection every detectionInterval frames only, and move the detections
+    //with sparse optical flow in between. 1 detects on every frame.
+    public int detectionInterval = 1;
+    //area of a frame pixel relative to the frames MIN_OBJECT_AREA was tuned for, e.g. 0.25
+    //for frames of half the width and height. The scale of setResolution() is applied on top.
+    public double areaScale = 1;
+
+    //read and written only by the thread that processes the frames
+    final List<TrackObject> objects = new ArrayList<>();
+    final List<ObjectSlot> slots = new ArrayList<>();
+    //objects added by other threads, applied at the start of the next frame
+    private final List<TrackObject> pendingObjects = new ArrayList<>();
+    //objects applied and pending, guarded by pendingObjects
+    private int objectCount;
+    private final List<Callable<Void>> slotTasks = new ArrayList<>();
+    final FrameWorkspace workspace = new FrameWorkspace();
+    final HsvClassifier classifier = new HsvClassifier(workspace);
+    final RgbClassifier rgbClassifier = new RgbClassifier(workspace);
+    final YuvClassifier yuvClassifier = new YuvClassifier(workspace);
+    final Morphology morphology = new Morphology();
+    final FlowPropagator flow = new FlowPropagator(workspace);
+    private int framesSinceDetection;
+    //resolution of the camera, set by setResolution() on top of the configured settings
+    private int resolutionLevel;
+    private double resolutionAreaScale = 1;
+    private final TrackingResult result = new TrackingResult(slots);
+    private final Mat inputFrame = new Mat();
+    private ExecutorService executor;
+    private final AtomicInteger trackIds = new AtomicInteger();
+    //latency of the stages, recorded from the slot threads too
+    private LatencyMetrics metrics = new LatencyMetrics();
+
+    //state of the current frame, read by the slot tasks
+    //the RGBA frame, or the luma plane of an NV21 frame
+    private Mat frame;
+    //the whole NV21 frame, null for RGBA frames
+    private Mat frameNv21;
+    //images shared by the caller, null if the engine converts the frame itself
+    private SharedImages frameImages;
+    //HSV of the last full frame pass
+    private Mat frameHsv;
+    private int frameLevel;
+    private boolean frameDebugView;
+    private long frameTimestamp;
+    //Y plane header of processNv21 and the frame it points into
+    private Mat lumaHeader;
+    private Mat lumaParent;
+    private long lumaParentData;
+    //number of the next frame given without a sequence number
+    private long nextSequence;
+
+    /**
+     * Size the per-frame buffers
+     * @param width width of the frames
+     * @param height height of the frames
+     */
+    public void start(int width, int height) {
+        workspace.allocate(width, height);
+    }
+
+    /**
+     * Stop the workers and release the per-frame buffers
+     */
+    public void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        workspace.release();
+        morphology.release();
+        flow.release();
+        inputFrame.release();
+        releaseLumaHeader();
+        for (ObjectSlot slot : slots) {
+            slot.release();
+        }
+    }
+
+    /**
+     * Start tracking a new object from the next frame on. May be called from any thread,
+     * e.g. the UI thread while the camera thread processes a frame.
+     * @return index the object will have, or -1 if there are too many objects
+     */
+    public int addObject(TrackObject trackObject) {
+        synchronized (pendingObjects) {
+            if (objectCount >= HsvClassifier.MAX_OBJECTS) {
+                return -1;
+            }
+            pendingObjects.add(trackObject);
+            return objectCount++;
+        }
+    }
+
+    /**
+     * Number of objects added so far, including the ones not applied to a frame yet
+     */
+    public int getObjectCount() {
+        synchronized (pendingObjects) {
+            return objectCount;
+        }
+    }
+
+    //set up the classifiers and slots of the added objects, on the processing thread
+    private void applyPendingObjects() {
+        synchronized (pendingObjects) {
+            for (TrackObject trackObject : pendingObjects) {
+                int index = classifier.addObject(trackObject);
+                //same index, all classifiers have the same object limit. The lookup
+                //tables are built by the first frame that uses them.
+                rgbClassifier.addObject(trackObject);
+                yuvClassifier.addObject(trackObject);
+                objects.add(trackObject);
+                final ObjectSlot slot = new ObjectSlot(index, trackObject);
+                slots.add(slot);
+                slotTasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        trackSlot(slot);
+                        return null;
+                    }
+                });
+            }
+            pendingObjects.clear();
+        }
+    }
+
+    /**
+     * Objects of the processed frames, indexed by Detections.getObjectId(). Read it on the
+     * thread that processes the frames, objects added later appear at the next frame.
+     */
+    public List<TrackObject> getObjects() {
+        return objects;
+    }
+
+    /**
+     * Number of native Mats allocated by the per-frame workspace so far: the frame sized
+     * buffers, the object masks and the search window buffers. It does not grow between
+     * frames of the same size. It does not cover the small native headers the engine still
+     * creates per frame, the submat of every search window and the contours of findContours.
+     * Those are released eagerly, at the end of the window and at the next findContours of
+     * the object, so none is left to the finalizer.
+     */
+    public int getWorkspaceAllocationCount() {
+        return workspace.getAllocationCount();
+    }
+
+    /**
+     * Follow a lower camera resolution without changing the configured settings, e.g. the
+     * level of a ResolutionGovernor. Call it between frames.
+     * @param extraPyramidLevel added to pyramidLevel, see ResolutionGovernor.getPyramidLevel()
+     * @param areaScale multiplied with the areaScale field, see ResolutionGovernor.getAreaScale()
+     */
+    public void setResolution(int extraPyramidLevel, double areaScale) {
+        resolutionLevel = extraPyramidLevel;
+        resolutionAreaScale = areaScale;
+    }
+
+    public LatencyMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Record the stage latencies into the given registry, e.g. the one of the camera view,
+     * so all stages of a frame are in one place. Call it between frames.
+     */
+    public void setMetrics(LatencyMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * HSV frame of the last full frame pass, valid with keepDebugBuffers
+     */
+    public Mat getHsv() {
+        return frameHsv != null ? frameHsv : workspace.hsv;
+    }
+
+    /**
+     * Threshold mask of an object after morphology, valid with keepDebugBuffers
+     */
+    public Mat getMask(int objectIndex) {
+        return slots.get(objectIndex).mask;
+    }
+
+    /**
+     * Find the occurrences of the object in its threshold mask, into slot.occurrences
+     * @param offset position of the mask in the frame
+     * @return index of the occurrence with the largest area, or -1 if none found
+     */
+    int trackFilteredObject(ObjectSlot slot, Mat threshold, Mat cameraFeed, Point offset){
+        long start = System.nanoTime();
+        try {
+            return extractBlobs(slot, threshold, cameraFeed, offset);
+        } finally {
+            metrics.stop(LatencyMetrics.Stage.CONTOURS, start);
+        }
+    }
+
+    private int extractBlobs(ObjectSlot slot, Mat threshold, Mat cameraFeed, Point offset) {
+        if (blobExtractor == BlobExtractors.CONNECTED_COMPONENTS) {
+            return trackComponents(slot, threshold, cameraFeed, offset);
+        }
+
+        //these two vectors needed for output of findContours, reused from the slot
+        slot.releaseContours();
+        List<MatOfPoint> contours = slot.contours;
+        Mat hierarchy = slot.hierarchy;
+        //find contours of filtered image using openCV findContours function
+        //since OpenCV 3.2 findContours does not modify its input, so the mask is used as is
+        Imgproc.findContours(threshold,contours,hierarchy,Imgproc.RETR_CCOMP,Imgproc.CHAIN_APPROX_SIMPLE,offset);
+        //use moments method to find our filtered object
+        double refArea = 0;
+        int largest = -1;
+        slot.clearResults();
+        if (hierarchy.size().height > 0 && hierarchy.size().width > 0) {
+            int numObjects = contours.size();
+            //if number of objectOccurencies greater than MAX_NUM_OBJECTS we have a noisy filter
+            if (numObjects < MAX_NUM_OBJECTS) {
+                //read the whole hierarchy at once
+                int[] hierarchyData = slot.readHierarchy();
+                for (int index = 0; index >= 0; index = hierarchyData[index * 4]) {
+
+                    Moments moment = moments(contours.get(index));
+                    double area = moment.m00;
+
+                    //if the area is less than 20 px by 20px then it is probably just noise
+                    //if the area is the same as the 3/2 of the image size, probably just a bad filter
+                    //we only want the object with the largest area so we safe a reference area each
+                    //iteration and compare it to the area in the next iteration.
+                    //if number of objectOccurencies greater than MAX_NUM_OBJECTS we have a noisy filter
+                    //the tracker takes every blob, not just the ones larger than the previous
+                    if (area > minObjectArea() && area<(cameraFeed.rows()*cameraFeed.cols()/1.5) && (useTracker || area>refArea) && slot.occurrences.size()<MAX_NUM_OBJECTS ) {
+
+                        int added = slot.occurrences.add((int) Math.round(moment.m10 / area),
+                                (int) Math.round(moment.m01 / area), area, slot.index, index);
+                        if (area > refArea) {
+                            refArea = area;
+                            largest = added;
+                        }
+                    }
+                }
+
+
+            } else {
+                slot.noisy = true;
+            }
+        }
+        return largest;
+    }
+
+    //smallest blob area at the resolution of the frame
+    private double minObjectArea() {
+        return MIN_OBJECT_AREA * areaScale * resolutionAreaScale;
+    }
+
+    /**
+     * Same as trackFilteredObject, with the blobs of connectedComponentsWithStats.
+     * The area is the pixel count of the blob. Contours are found only with keepContours.
+     */
+    int trackComponents(ObjectSlot slot, Mat threshold, Mat cameraFeed, Point offset) {
+        ConnectedComponents components = slot.components;
+        slot.releaseContours();
+        slot.clearResults();
+        int count = components.find(threshold, workspace);
+        //label 0 is the background
+        if (count - 1 >= MAX_NUM_OBJECTS) {
+            slot.noisy = true;
+            return -1;
+        }
+        double refArea = 0;
+        int largest = -1;
+        for (int label = 1; label < count; label++) {
+            double area = components.area(label);
+            //same filter as the contour path
+            if (area > minObjectArea() && area<(cameraFeed.rows()*cameraFeed.cols()/1.5) && (useTracker || area>refArea) && slot.occurrences.size()<MAX_NUM_OBJECTS ) {
+
+                slot.occurrenceLabels[slot.occurrences.size()] = label;
+                int added = slot.occurrences.add((int) Math.round(components.centroidX(label) + offset.x),
+                        (int) Math.round(components.centroidY(label) + offset.y), area, slot.index, -1);
+                if (area > refArea) {
+                    refArea = area;
+                    largest = added;
+                }
+            }
+        }
+        if (keepContours && largest >= 0) {
+            findOccurrenceContours(slot, threshold, offset);
+        }
+        return largest;
+    }
+
+    /**
+     * Find the contours of the mask and point the occurrences to the outer contour of their blob
+     */
+    private void findOccurrenceContours(ObjectSlot slot, Mat threshold, Point offset) {
+        List<MatOfPoint> contours = slot.contours;
+        Imgproc.findContours(threshold, contours, slot.hierarchy, Imgproc.RETR_CCOMP, Imgproc.CHAIN_APPROX_SIMPLE, offset);
+        if (contours.isEmpty()) {
+            return;
+        }
+        int[] hierarchyData = slot.readHierarchy();
+        int[] point = new int[2];
+        int[] label = new int[1];
+        for (int index = 0; index >= 0; index = hierarchyData[index * 4]) {
+            //any point of the outer contour is on its blob
+            contours.get(index).get(0, 0, point);
+            slot.components.labels.get(point[1] - (int) offset.y, point[0] - (int) offset.x, label);
+            for (int i = 0; i < slot.occurrences.size(); i++) {
+                if (slot.occurrenceLabels[i] == label[0]) {
+                    slot.occurrences.setHierarchyIndex(i, index);
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the largest blob in the coarse pyramid level mask of the slot, then refine it at full resolution
+     * @return index of the refined occurrence, or -1 if none found
+     */
+    int trackCoarseObject(ObjectSlot slot, Mat cameraFeed) {
+        int level = workspace.getLevel();
+        double minArea = minObjectArea() / (1 << (2 * level));
+
+        slot.releaseContours();
+        slot.clearResults();
+        long start = System.nanoTime();
+        Rect box = blobExtractor == BlobExtractors.CONNECTED_COMPONENTS
+                ? largestComponent(slot, minArea) : largestContour(slot, minArea);
+        metrics.stop(LatencyMetrics.Stage.CONTOURS, start);
+        if (box == null) {
+            return -1;
+        }
+        box.x <<= level;
+        box.y <<= level;
+        box.width <<= level;
+        box.height <<= level;
+        //a coarse pixel is 2^level full pixels, leave room for the dilation as well
+        slot.window.cover(box, 2 << level, cameraFeed.cols(), cameraFeed.rows());
+        return trackInWindow(slot, cameraFeed);
+    }
+
+    /**
+     * @return bounding box of the largest outer contour of the slot mask above minArea, or null
+     */
+    private Rect largestContour(ObjectSlot slot, double minArea) {
+        List<MatOfPoint> contours = slot.contours;
+        Imgproc.findContours(slot.mask, contours, slot.hierarchy, Imgproc.RETR_CCOMP, Imgproc.CHAIN_APPROX_SIMPLE);
+        if (contours.isEmpty()) {
+            return null;
+        }
+        if (contours.size() >= MAX_NUM_OBJECTS) {
+            slot.noisy = true;
+            return null;
+        }
+        int[] hierarchyData = slot.readHierarchy();
+        int best = -1;
+        double bestArea = minArea;
+        for (int index = 0; index >= 0; index = hierarchyData[index * 4]) {
+            double area = Imgproc.contourArea(contours.get(index));
+            if (area > bestArea) {
+                bestArea = area;
+                best = index;
+            }
+        }
+        return best < 0 ? null : Imgproc.boundingRect(contours.get(best));
+    }
+
+    /**
+     * @return bounding box of the largest blob of the slot mask above minArea, or null
+     */
+    private Rect largestComponent(ObjectSlot slot, double minArea) {
+        ConnectedComponents components = slot.components;
+        int count = components.find(slot.mask, workspace);
+        if (count - 1 >= MAX_NUM_OBJECTS) {
+            slot.noisy = true;
+            return null;
+        }
+        int best = -1;
+        double bestArea = minArea;
+        for (int label = 1; label < count; label++) {
+            if (components.area(label) > bestArea) {
+                bestArea = components.area(label);
+                best = label;
+            }
+        }
+        return best < 0 ? null : new Rect(components.left(best), components.top(best), components.width(best), components.height(best));
+    }
+
+    /**
+     * Convert and threshold only the search window of the slot, window.rect must be placed
+     */
+    int trackInWindow(ObjectSlot slot, Mat cameraFeed) {
+        TrackObject trackObject = slot.object;
+        SearchWindow window = slot.window;
+        Rect rect = window.rect;
+        workspace.ensure(window.hsv, rect.height, rect.width, CvType.CV_8UC3);
+        workspace.ensure(window.mask, rect.height, rect.width, CvType.CV_8UC1);
+
+        if (frameNv21 != null) {
+            window.ensureBuffers();
+            long start = System.nanoTime();
+            yuvClassifier.mask(frameNv21, cameraFeed.rows(), rect, slot.index, window.mask, window.pixels, window.maskData);
+            metrics.stop(LatencyMetrics.Stage.THRESHOLD, start);
+            applyMorphology(window.mask, trackObject.getErodeIterations(), trackObject.getDilateIterations());
+            return trackFilteredObject(slot, window.mask, cameraFeed, window.offset);
+        }
+        Mat feedWindow = cameraFeed.submat(rect);
+        if (colorClassifier == ColorClassifiers.RGB_LUT) {
+            window.ensureBuffers();
+            long start = System.nanoTime();
+            rgbClassifier.mask(feedWindow, slot.index, window.mask, window.pixels, window.maskData);
+            metrics.stop(LatencyMetrics.Stage.THRESHOLD, start);
+        } else {
+            long start = System.nanoTime();
+            cvtColor(feedWindow, window.hsv, Imgproc.COLOR_RGB2HSV_FULL);
+            metrics.stop(LatencyMetrics.Stage.HSV_CONVERSION, start);
+            start = System.nanoTime();
+            Core.inRange(window.hsv, trackObject.getHSVmin(), trackObject.getHSVmax(), window.mask);
+            metrics.stop(LatencyMetrics.Stage.THRESHOLD, start);
+        }
+        feedWindow.release();
+        applyMorphology(window.mask, trackObject.getErodeIterations(), trackObject.getDilateIterations());
+        return trackFilteredObject(slot, window.mask, cameraFeed, window.offset);
+    }
+
+    //iterations on a pyramid level, at least one if the object has any, so the noise is still removed
+    static int coarseIterations(int iterations, int level) {
+        return iterations > 0 ? Math.max(1, iterations >> level) : 0;
+    }
+
+    private void applyMorphology(Mat mask, int erodeIterations, int dilateIterations) {
+        long start = System.nanoTime();
+        morphology.apply(mask, erodeIterations, dilateIterations);
+        metrics.stop(LatencyMetrics.Stage.MORPHOLOGY, start);
+    }
+
+    /**
+     * Threshold, morphology and contour search of one object. Touches only the slot and
+     * reads the frame, so the slots of a frame may run in parallel.
+     */
+    void trackSlot(ObjectSlot slot) {
+        Mat cameraFeed = frame;
+        int level = frameLevel;
+        TrackObject trackObject = slot.object;
+        SearchWindow window = slot.window;
+        int found;
+        if (searchMode == SearchModes.WINDOWED && !frameDebugView && window.isActive()) {
+            if (useTracker && slot.tracker.hasTracks()) {
+                //scan only where the tracks are expected
+                window.cover(slot.tracker.predictedBox(SearchWindow.SCALE), 0, cameraFeed.cols(), cameraFeed.rows());
+            } else {
+                window.place(cameraFeed.cols(), cameraFeed.rows());
+            }
+            found = trackInWindow(slot, cameraFeed);
+        } else {
+            workspace.ensure(slot.mask, workspace.getHeight(), workspace.getWidth(), CvType.CV_8UC1);
+            long start = System.nanoTime();
+            classifier.extractMask(slot.index, slot.mask);
+            metrics.stop(LatencyMetrics.Stage.THRESHOLD, start);
+            if (level > 0) {
+                //the kernels cover 2^level times more pixels on the coarse level
+                applyMorphology(slot.mask, coarseIterations(trackObject.getErodeIterations(), level),
+                        coarseIterations(trackObject.getDilateIterations(), level));
+                found = trackCoarseObject(slot, cameraFeed);
+            } else {
+                applyMorphology(slot.mask, trackObject.getErodeIterations(), trackObject.getDilateIterations());
+                found = trackFilteredObject(slot, slot.mask, cameraFeed, ORIGIN);
+            }
+        }
+
+        slot.largest = found;
+        if (found >= 0) {
+            Detections occurrences = slot.occurrences;
+            window.found(occurrences.getX(found), occurrences.getY(found), occurrences.getArea(found));
+        } else {
+            window.missed(searchMaxMisses);
+        }
+        if (useTracker) {
+            slot.tracker.update(slot.occurrences, slot.index, frameTimestamp, trackIds);
+        }
+    }
+
+    /**
+     * Follow up of a frame whose detections were moved by the optical flow
+     */
+    private void propagatedSlot(ObjectSlot slot) {
+        if (slot.largest >= 0) {
+            Detections occurrences = slot.occurrences;
+            slot.window.found(occurrences.getX(slot.largest), occurrences.getY(slot.largest), occurrences.getArea(slot.largest));
+        }
+        if (useTracker) {
+            slot.tracker.update(slot.occurrences, slot.index, frameTimestamp, trackIds);
+        }
+    }
+
+    private void trackSlots() {
+        if (executionMode == ExecutionModes.PARALLEL && slots.size() > 1) {
+            if (executor == null) {
+                executor = Executors.newFixedThreadPool(Core.getNumberOfCPUs());
+            }
+            try {
+                for (Future<Void> result : executor.invokeAll(slotTasks)) {
+                    result.get();
+                }
+                return;
+            } catch (InterruptedException e) {
+                //finish the frame on this thread
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Object tracking failed", e.getCause());
+            }
+        }
+        for (ObjectSlot slot : slots) {
+            trackSlot(slot);
+        }
+    }
+
+
+    /**
+     * Full detection of all objects on the frame
+     */
+    private void detect(Mat rgba) {
+        int level = keepDebugBuffers ? 0 : Math.max(0, Math.min(pyramidLevel + resolutionLevel, MAX_PYRAMID_LEVEL));
+        if (frameNv21 != null) {
+            //the chroma resolution is the coarsest level of an NV21 frame
+            level = Math.min(level, 1);
+        }
+        workspace.fit(rgba, level);
+        frameHsv = null;
+
+        boolean fullFrame = false;
+        for (ObjectSlot slot : slots) {
+            if (searchMode == SearchModes.FULL_FRAME || keepDebugBuffers || !slot.window.isActive()) {
+                fullFrame = true;
+            }
+        }
+
+        if (fullFrame && frameNv21 != null) {
+            //label all objects straight from Y, U and V
+            long start = System.nanoTime();
+            yuvClassifier.classify(frameNv21, rgba.cols(), rgba.rows(), level);
+            metrics.stop(LatencyMetrics.Stage.THRESHOLD, start);
+        } else if (fullFrame && colorClassifier == ColorClassifiers.RGB_LUT && !keepDebugBuffers) {
+            //label all objects straight from RGB, one table lookup per pixel
+            Mat source = downscale(rgba, level);
+            long start = System.nanoTime();
+            rgbClassifier.classify(source);
+            metrics.stop(LatencyMetrics.Stage.THRESHOLD, start);
+        } else if (fullFrame) {
+            //convert frame (or its pyramid level) from RGB to HSV colorspace
+            long start = System.nanoTime();
+            frameHsv = sharedImage(frameImages == null ? null : frameImages.hsv(level));
+            if (frameHsv == null) {
+                cvtColor(downscale(rgba, level),workspace.hsv,Imgproc.COLOR_RGB2HSV_FULL);
+                frameHsv = workspace.hsv;
+            }
+            metrics.stop(LatencyMetrics.Stage.HSV_CONVERSION, start);
+            //label all objects in one pass, then pull out the mask of each object
+            start = System.nanoTime();
+            classifier.classify(frameHsv);
+            metrics.stop(LatencyMetrics.Stage.THRESHOLD, start);
+        }
+
+        //build the table of a lookup classifier on its first use, the windows only read it
+        if (frameNv21 != null) {
+            yuvClassifier.update();
+        } else if (colorClassifier == ColorClassifiers.RGB_LUT) {
+            rgbClassifier.update();
+        }
+
+        frame = rgba;
+        frameLevel = level;
+        frameDebugView = keepDebugBuffers;
+        trackSlots();
+        frame = null;
+    }
+
+    /**
+     * The pyramid level of the frame, shared by the caller if possible
+     */
+    private Mat downscale(Mat rgba, int level) {
+        Mat shared = level == 0 || frameImages == null ? null : sharedImage(frameImages.pyramid(level));
+        return shared != null ? shared : workspace.downscale(rgba);
+    }
+
+    //a shared image is used only if it has the size of the workspace level
+    private Mat sharedImage(Mat image) {
+        if (image == null || image.cols() != workspace.getWidth() || image.rows() != workspace.getHeight()) {
+            return null;
+        }
+        return image;
+    }
+
+    /**
+     * Track all objects on an RGBA frame. The frame is only read.
+     * @param rgba CV_8UC4 frame
+     * @param timestamp capture time of the frame, in nanoseconds
+     * @return result of the frame, reused by the next call
+     */
+    public TrackingResult process(Mat rgba, long timestamp) {
+        return process(rgba, null, timestamp, nextSequence);
+    }
+
+    /**
+     * Track all objects on an RGBA frame, taking the pyramid levels and the HSV conversion
+     * from the caller instead of computing them
+     * @param rgba CV_8UC4 frame
+     * @param images derived images of rgba, only read. null to compute them.
+     * @param timestamp capture time of the frame, in nanoseconds
+     * @param sequence number of the frame in capture order, see TrackingResult.getSequence()
+     * @return result of the frame, reused by the next call
+     */
+    public TrackingResult process(Mat rgba, SharedImages images, long timestamp, long sequence) {
+        frameNv21 = null;
+        frameImages = images;
+        try {
+            return processFrame(rgba, timestamp, sequence);
+        } finally {
+            frameImages = null;
+        }
+    }
+
+    /**
+     * Track all objects on an NV21 camera frame without converting it to RGBA or HSV.
+     * The debug buffers (keepDebugBuffers) are not filled on this path.
+     * @param nv21 CV_8UC1 frame of height * 3 / 2 rows, width and height even
+     * @param timestamp capture time of the frame, in nanoseconds
+     * @return result of the frame, reused by the next call
+     */
+    public TrackingResult processNv21(Mat nv21, int width, int height, long timestamp) {
+        return processNv21(nv21, width, height, timestamp, nextSequence);
+    }
+
+    /**
+     * Track all objects on an NV21 camera frame without converting it to RGBA or HSV.
+     * The debug buffers (keepDebugBuffers) are not filled on this path.
+     * @param nv21 CV_8UC1 frame of height * 3 / 2 rows, width and height even
+     * @param timestamp capture time of the frame, in nanoseconds
+     * @param sequence number of the frame in capture order, see TrackingResult.getSequence()
+     * @return result of the frame, reused by the next call
+     */
+    public TrackingResult processNv21(Mat nv21, int width, int height, long timestamp, long sequence) {
+        if (nv21.empty()) {
+            return processNv21(nv21, nv21, timestamp, sequence);
+        }
+        return processNv21(nv21, lumaHeader(nv21, width, height), timestamp, sequence);
+    }
+
+    /**
+     * Same as processNv21(nv21, width, height, timestamp, sequence), with the Y plane header
+     * of the caller, e.g. CvCameraViewFrame.gray(), so the engine does not create one
+     * @param luma rows 0..height of nv21
+     */
+    public TrackingResult processNv21(Mat nv21, Mat luma, long timestamp, long sequence) {
+        if (nv21.empty()) {
+            result.clear(timestamp, sequence);
+            nextSequence = sequence + 1;
+            return result;
+        }
+        frameNv21 = nv21;
+        try {
+            return processFrame(luma, timestamp, sequence);
+        } finally {
+            frameNv21 = null;
+        }
+    }
+
+    //Y plane header of the frame, reused while the caller passes the same frame buffer
+    private Mat lumaHeader(Mat nv21, int width, int height) {
+        if (lumaHeader == null || lumaParent != nv21 || lumaParentData != nv21.dataAddr()
+                || lumaHeader.cols() != width || lumaHeader.rows() != height) {
+            releaseLumaHeader();
+            lumaHeader = nv21.submat(0, height, 0, width);
+            lumaParent = nv21;
+            lumaParentData = nv21.dataAddr();
+        }
+        return lumaHeader;
+    }
+
+    private void releaseLumaHeader() {
+        if (lumaHeader != null) {
+            lumaHeader.release();
+            lumaHeader = null;
+            lumaParent = null;
+        }
+    }
+
+    private TrackingResult processFrame(Mat feed, long timestamp, long sequence) {
+        applyPendingObjects();
+        result.clear(timestamp, sequence);
+        nextSequence = sequence + 1;
+        if (feed.empty()) {
+            return result;
+        }
+
+        frameTimestamp = timestamp;
+        //between the detection frames, unless the debug views need the masks
+        boolean propagate = detectionInterval > 1 && !keepDebugBuffers
+                && framesSinceDetection < detectionInterval - 1;
+        if (propagate && flow.propagate(feed, slots)) {
+            framesSinceDetection++;
+            for (ObjectSlot slot : slots) {
+                propagatedSlot(slot);
+            }
+        } else {
+            detect(feed);
+            framesSinceDetection = 0;
+            if (detectionInterval > 1) {
+                flow.seed(feed, slots);
+            } else {
+                flow.reset();
+            }
+        }
+
+        //merge in object order, so the result does not depend on the execution mode
+        for (ObjectSlot slot : slots) {
+            result.add(slot, useTracker);
+        }
+        return result;
+    }
+
+    /**
+     * Track all objects on an RGBA frame given as bytes
+     * @param rgba width * height * 4 bytes
+     * @param timestamp capture time of the frame, in nanoseconds
+     * @return result of the frame, reused by the next call
+     */
+    public TrackingResult process(byte[] rgba, int width, int height, long timestamp) {
+        workspace.ensure(inputFrame, height, width, CvType.CV_8UC4);
+        inputFrame.put(0, 0, rgba);
+        return process(inputFrame, timestamp);
+    }
+}
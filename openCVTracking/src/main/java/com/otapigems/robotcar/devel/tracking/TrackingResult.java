@@ -0,0 +1,106 @@
+/*
+    RobotCar.Devel.Tracking
+    Color based tracking of multiple objects with OpenCV on Android.
+    Copyright (C) 2018  Barnabás Nagy - otapiGems.com - otapiGems@protonmail.ch
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.otapigems.robotcar.devel.tracking;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Detections of one frame. The engine reuses the same instance for every frame,
+ * copy what is needed before processing the next frame.
+ */
+public class TrackingResult {
+    private long timestamp;
+    private long sequence;
+    private boolean noisy;
+    private final Detections detections = new Detections(TrackingEngine.MAX_NUM_OBJECTS);
+    private final ArrayList<Track> tracks = new ArrayList<>();
+    private final List<Track> readOnlyTracks = Collections.unmodifiableList(tracks);
+    //per object details (contours, hierarchy) for drawing the overlay
+    final List<ObjectSlot> slots;
+
+    TrackingResult(List<ObjectSlot> slots) {
+        this.slots = slots;
+    }
+
+    /**
+     * @return capture time of the frame, in nanoseconds. On Android it is in the base of
+     * SystemClock.elapsedRealtimeNanos(), the age of the result is the difference to it.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return number of the frame in capture order, skipped numbers are frames that were
+     * never processed
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return occurrences of all objects, in the order the objects were added
+     */
+    public Detections getDetections() {
+        return detections;
+    }
+
+    /**
+     * @return confirmed tracks of all objects, empty unless TrackingEngine.useTracker is set.
+     * The tracks are reused by the next frame.
+     */
+    public List<Track> getTracks() {
+        return readOnlyTracks;
+    }
+
+    /**
+     * @return the tracked object of a detection, see Detections.getObjectId()
+     */
+    public TrackObject getObject(int objectId) {
+        return slots.get(objectId).object;
+    }
+
+    /**
+     * @return true if the filter of any object found too many blobs
+     */
+    public boolean isNoisy() {
+        return noisy;
+    }
+
+    void clear(long timestamp, long sequence) {
+        this.timestamp = timestamp;
+        this.sequence = sequence;
+        noisy = false;
+        detections.clear();
+        tracks.clear();
+    }
+
+    void add(ObjectSlot slot, boolean withTracks) {
+        noisy |= slot.noisy;
+        int from = detections.size();
+        detections.addAll(slot.occurrences);
+        detections.stamp(from, timestamp, sequence);
+        if (withTracks) {
+            slot.tracker.confirmed(tracks);
+        }
+    }
+}
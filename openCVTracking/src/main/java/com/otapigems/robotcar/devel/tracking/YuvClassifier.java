@@ -0,0 +1,171 @@
+/*
+    RobotCar.Devel.Tracking
+    Color based tracking of multiple objects with OpenCV on Android.
+    Copyright (C) 2018  Barnabás Nagy - otapiGems.com - otapiGems@protonmail.ch
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.otapigems.robotcar.devel.tracking;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Classifies NV21 camera frames against all TrackObjects without any color conversion,
+ * with a table indexed by the top 6 bits of Y, U and V, see QuantizedClassifier.
+ * The cell centers are converted with COLOR_YUV2RGB_NV21, the conversion of the RGBA path.
+ * U and V are read at their native quarter resolution: one chroma lookup per 2x2 block,
+ * on pyramid level 1 one label per block with the mean Y of the block.
+ */
+class YuvClassifier extends QuantizedClassifier {
+    private byte[] frameBuffer;
+
+    YuvClassifier(FrameWorkspace workspace) {
+        super(workspace);
+    }
+
+    @Override
+    byte[] convertCells() {
+        //one 2x2 block of an NV21 image per cell
+        int blocks = LEVELS * (1 << (BITS / 2));
+        int size = blocks * 2;
+        byte[] nv21 = new byte[size * size * 3 / 2];
+        for (int i = 0; i < CELLS; i++) {
+            int row = i / blocks;
+            int col = i % blocks;
+            byte y = (byte) (((i >> (2 * BITS)) << SHIFT) + CENTER);
+            nv21[2 * row * size + 2 * col] = y;
+            nv21[2 * row * size + 2 * col + 1] = y;
+            nv21[(2 * row + 1) * size + 2 * col] = y;
+            nv21[(2 * row + 1) * size + 2 * col + 1] = y;
+            int chroma = size * size + row * size + 2 * col;
+            nv21[chroma] = (byte) (((i & (LEVELS - 1)) << SHIFT) + CENTER);
+            nv21[chroma + 1] = (byte) ((((i >> BITS) & (LEVELS - 1)) << SHIFT) + CENTER);
+        }
+        Mat yuv = new Mat(size * 3 / 2, size, CvType.CV_8UC1);
+        yuv.put(0, 0, nv21);
+        Mat hsv = new Mat();
+        Imgproc.cvtColor(yuv, hsv, Imgproc.COLOR_YUV2RGB_NV21);
+        Imgproc.cvtColor(hsv, hsv, Imgproc.COLOR_RGB2HSV_FULL);
+        byte[] image = new byte[size * size * 3];
+        hsv.get(0, 0, image);
+        yuv.release();
+        hsv.release();
+
+        byte[] cells = new byte[CELLS * 3];
+        for (int i = 0; i < CELLS; i++) {
+            int pixel = (2 * (i / blocks) * size + 2 * (i % blocks)) * 3;
+            cells[i * 3] = image[pixel];
+            cells[i * 3 + 1] = image[pixel + 1];
+            cells[i * 3 + 2] = image[pixel + 2];
+        }
+        return cells;
+    }
+
+    //index of the U and V bits in the table
+    private static int chroma(byte v, byte u) {
+        return (((u & 0xff) >> SHIFT) << BITS) | ((v & 0xff) >> SHIFT);
+    }
+
+    private int label(int y, int chroma) {
+        return table[((y >> SHIFT) << (2 * BITS)) | chroma];
+    }
+
+    /**
+     * Label the frame with the bits of all matching objects
+     * @param nv21 CV_8UC1 frame of height * 3 / 2 rows
+     * @param level 0: one label per pixel, 1: one label per 2x2 block
+     */
+    void classify(Mat nv21, int width, int height, int level) {
+        update();
+        int length = width * height * 3 / 2;
+        if (frameBuffer == null || frameBuffer.length != length) {
+            frameBuffer = new byte[length];
+        }
+        nv21.get(0, 0, frameBuffer);
+        byte[] f = frameBuffer;
+        int chromaStart = width * height;
+
+        if (level == 0) {
+            byte[][] labels = labelBuffers(width * height);
+            for (int by = 0; by < height / 2; by++) {
+                for (int bx = 0; bx < width / 2; bx++) {
+                    int c = chroma(f[chromaStart + by * width + 2 * bx], f[chromaStart + by * width + 2 * bx + 1]);
+                    int i = 2 * by * width + 2 * bx;
+                    store(labels, i, label(f[i] & 0xff, c));
+                    store(labels, i + 1, label(f[i + 1] & 0xff, c));
+                    store(labels, i + width, label(f[i + width] & 0xff, c));
+                    store(labels, i + width + 1, label(f[i + width + 1] & 0xff, c));
+                }
+            }
+        } else {
+            int blocksX = width / 2;
+            byte[][] labels = labelBuffers(blocksX * (height / 2));
+            for (int by = 0; by < height / 2; by++) {
+                for (int bx = 0; bx < blocksX; bx++) {
+                    int c = chroma(f[chromaStart + by * width + 2 * bx], f[chromaStart + by * width + 2 * bx + 1]);
+                    int i = 2 * by * width + 2 * bx;
+                    int y = ((f[i] & 0xff) + (f[i + 1] & 0xff) + (f[i + width] & 0xff) + (f[i + width + 1] & 0xff)) >> 2;
+                    store(labels, by * blocksX + bx, label(y, c));
+                }
+            }
+        }
+        writePlanes();
+    }
+
+    private static void store(byte[][] labels, int i, int label) {
+        if (labels.length == 1) {
+            labels[0][i] = (byte) label;
+        } else {
+            split(labels, i, label);
+        }
+    }
+
+    /**
+     * Binary (0 / 255) mask of one object on a region of the frame, for the search windows.
+     * Touches only the given buffers, so the slots can call it in parallel after update().
+     * @param rect region, starting on even coordinates
+     * @param pixels buffer of at least rect area * 3 / 2 bytes
+     * @param maskData buffer of rect area bytes
+     */
+    void mask(Mat nv21, int height, Rect rect, int objectIndex, Mat mask, byte[] pixels, byte[] maskData) {
+        int count = rect.width * rect.height;
+        int bit = 1 << objectIndex;
+        Mat luma = nv21.submat(rect.y, rect.y + rect.height, rect.x, rect.x + rect.width);
+        Mat chroma = nv21.submat(height + rect.y / 2, height + (rect.y + rect.height) / 2, rect.x, rect.x + rect.width);
+        luma.get(0, 0, pixels);
+        //interleaved V U, one row per 2 rows of the window. Read into the mask buffer,
+        //then moved behind the luma, before the mask is written.
+        chroma.get(0, 0, maskData);
+        luma.release();
+        chroma.release();
+        System.arraycopy(maskData, 0, pixels, count, count / 2);
+
+        int w = rect.width;
+        for (int by = 0; by < rect.height / 2; by++) {
+            for (int bx = 0; bx < w / 2; bx++) {
+                int c = chroma(pixels[count + by * w + 2 * bx], pixels[count + by * w + 2 * bx + 1]);
+                int i = 2 * by * w + 2 * bx;
+                maskData[i] = (label(pixels[i] & 0xff, c) & bit) != 0 ? (byte) 255 : 0;
+                maskData[i + 1] = (label(pixels[i + 1] & 0xff, c) & bit) != 0 ? (byte) 255 : 0;
+                maskData[i + w] = (label(pixels[i + w] & 0xff, c) & bit) != 0 ? (byte) 255 : 0;
+                maskData[i + w + 1] = (label(pixels[i + w + 1] & 0xff, c) & bit) != 0 ? (byte) 255 : 0;
+            }
+        }
+        mask.put(0, 0, maskData);
+    }
+}
@@ -0,0 +1,252 @@
+/*
+    RobotCar.Devel.Tracking
+    Color based tracking of multiple objects with OpenCV on Android.
+    Copyright (C) 2018  Barnabás Nagy - otapiGems.com - otapiGems@protonmail.ch
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.otapigems.robotcar.devel.tracking;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Hot path of the tracking: the whole frame and its stages one by one, on synthetic frames.
+ * The stage benchmarks work on the buffers of the engine, filled by one full frame pass in setup.
+ * Run with ./gradlew :openCVTrackingBenchmark:jmh -Popencv.native.dir=...
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TrackingBenchmark {
+
+    @Param({"320x240", "640x480", "1280x720"})
+    public String resolution;
+
+    @Param({"1", "4", "16"})
+    public int objects;
+
+    private SyntheticScene scene;
+    private TrackingEngine engine;
+    private TrackingResult result;
+    private long timestamp;
+
+    //per object masks of the stage benchmarks
+    private final List<Mat> thresholds = new ArrayList<>();
+    private final List<Mat> morphed = new ArrayList<>();
+    private final List<MatOfPoint> contours = new ArrayList<>();
+    private final Mat hierarchy = new Mat();
+    private Mat overlay;
+
+    @Setup
+    public void setup() {
+        SyntheticScene.loadNativeLibrary();
+        scene = new SyntheticScene(resolution, objects);
+
+        engine = new TrackingEngine();
+        engine.start(scene.frame.cols(), scene.frame.rows());
+        for (TrackObject trackObject : scene.objects) {
+            engine.addObject(trackObject);
+        }
+        //full frame pass, leaves the HSV frame, the masks and the contours in the engine
+        engine.keepDebugBuffers = true;
+        result = engine.process(scene.frame, timestamp++);
+        engine.flow.seed(scene.frame, engine.slots);
+        //the lookup tables are built on first use, keep that out of the measurements
+        engine.rgbClassifier.update();
+        engine.yuvClassifier.update();
+        //the process benchmarks measure the path of Tracking.onCameraFrame, not the debug views
+        engine.keepDebugBuffers = false;
+
+        for (TrackObject trackObject : scene.objects) {
+            Mat threshold = new Mat();
+            Core.inRange(engine.workspace.hsv, trackObject.getHSVmin(), trackObject.getHSVmax(), threshold);
+            thresholds.add(threshold);
+            morphed.add(new Mat());
+        }
+        overlay = scene.frame.clone();
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.stop();
+        for (Mat m : thresholds) {
+            m.release();
+        }
+        for (Mat m : morphed) {
+            m.release();
+        }
+        hierarchy.release();
+        overlay.release();
+        scene.release();
+    }
+
+    /**
+     * Everything TrackingEngine does with a frame, what Tracking.onCameraFrame calls
+     */
+    @Benchmark
+    public TrackingResult process() {
+        return engine.process(scene.frame, timestamp++);
+    }
+
+    /**
+     * Engine pass of the HSV and mask debug views: full resolution, full frame, no propagation
+     */
+    @Benchmark
+    public TrackingResult processDebugView() {
+        engine.keepDebugBuffers = true;
+        try {
+            return engine.process(scene.frame, timestamp++);
+        } finally {
+            engine.keepDebugBuffers = false;
+        }
+    }
+
+    @Benchmark
+    public Mat cvtColorHsv() {
+        Imgproc.cvtColor(scene.frame, engine.workspace.hsv, Imgproc.COLOR_RGB2HSV_FULL);
+        return engine.workspace.hsv;
+    }
+
+    /**
+     * One inRange pass per object, the thresholding before HsvClassifier
+     */
+    @Benchmark
+    public void inRange(Blackhole blackhole) {
+        for (int i = 0; i < objects; i++) {
+            TrackObject trackObject = scene.objects.get(i);
+            Core.inRange(engine.workspace.hsv, trackObject.getHSVmin(), trackObject.getHSVmax(), thresholds.get(i));
+            blackhole.consume(thresholds.get(i));
+        }
+    }
+
+    /**
+     * One classification pass, then the mask of every object
+     */
+    @Benchmark
+    public void classify(Blackhole blackhole) {
+        engine.classifier.classify(engine.workspace.hsv);
+        for (ObjectSlot slot : engine.slots) {
+            engine.classifier.extractMask(slot.index, slot.mask);
+            blackhole.consume(slot.mask);
+        }
+    }
+
+    /**
+     * Same labels as classify, straight from the RGBA frame, without cvtColor
+     */
+    @Benchmark
+    public void classifyRgbLut(Blackhole blackhole) {
+        engine.rgbClassifier.classify(scene.frame);
+        for (ObjectSlot slot : engine.slots) {
+            engine.classifier.extractMask(slot.index, slot.mask);
+            blackhole.consume(slot.mask);
+        }
+    }
+
+    /**
+     * Same labels from the NV21 camera frame, without any color conversion
+     */
+    @Benchmark
+    public void classifyNv21(Blackhole blackhole) {
+        engine.yuvClassifier.classify(scene.nv21, scene.frame.cols(), scene.frame.rows(), 0);
+        for (ObjectSlot slot : engine.slots) {
+            engine.classifier.extractMask(slot.index, slot.mask);
+            blackhole.consume(slot.mask);
+        }
+    }
+
+    /**
+     * Whole engine pass on the NV21 camera frame
+     */
+    @Benchmark
+    public TrackingResult processNv21() {
+        return engine.processNv21(scene.nv21, scene.frame.cols(), scene.frame.rows(), timestamp++);
+    }
+
+    /**
+     * Erode and dilate of every mask. Morphology works in place, so the time includes
+     * copying the threshold into the work mask.
+     */
+    @Benchmark
+    public void morphOps(Blackhole blackhole) {
+        for (int i = 0; i < objects; i++) {
+            TrackObject trackObject = scene.objects.get(i);
+            Mat mask = morphed.get(i);
+            thresholds.get(i).copyTo(mask);
+            engine.morphology.apply(mask, trackObject.getErodeIterations(), trackObject.getDilateIterations());
+            blackhole.consume(mask);
+        }
+    }
+
+    @Benchmark
+    public void findContoursMoments(Blackhole blackhole) {
+        for (ObjectSlot slot : engine.slots) {
+            Imgproc.findContours(slot.mask, contours, hierarchy, Imgproc.RETR_CCOMP, Imgproc.CHAIN_APPROX_SIMPLE);
+            for (MatOfPoint contour : contours) {
+                blackhole.consume(Imgproc.moments(contour));
+                contour.release();
+            }
+            contours.clear();
+        }
+    }
+
+    /**
+     * The alternative of findContours and moments: connectedComponentsWithStats and its bulk read
+     */
+    @Benchmark
+    public void connectedComponents(Blackhole blackhole) {
+        for (ObjectSlot slot : engine.slots) {
+            blackhole.consume(slot.components.find(slot.mask, engine.workspace));
+        }
+    }
+
+    /**
+     * Optical flow step of the frames between the detections, on the detections found in setup
+     */
+    @Benchmark
+    public boolean opticalFlow() {
+        return engine.flow.propagate(scene.frame, engine.slots);
+    }
+
+    /**
+     * Annotations of the detections found in setup
+     */
+    @Benchmark
+    public Mat drawObject() {
+        for (ObjectSlot slot : result.slots) {
+            for (int i = 0; i < slot.occurrences.size(); i++) {
+                Annotations.drawObject(slot.occurrences, i, slot.object.getName(), overlay, slot.contours, slot.hierarchy);
+            }
+        }
+        return overlay;
+    }
+}
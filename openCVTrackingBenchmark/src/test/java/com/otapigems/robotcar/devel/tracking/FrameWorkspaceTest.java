@@ -0,0 +1,117 @@
+/*
+    RobotCar.Devel.Tracking
+    Color based tracking of multiple objects with OpenCV on Android.
+    Copyright (C) 2018  Barnabás Nagy - otapiGems.com - otapiGems@protonmail.ch
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.otapigems.robotcar.devel.tracking;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The workspace allocates while the engine settles on the frame size and the search
+ * windows, and never again while the frames keep their size.
+ */
+public class FrameWorkspaceTest {
+    private static final int OBJECTS = 4;
+    private static final int WARM_UP_FRAMES = 5;
+    private static final int STEADY_FRAMES = 20;
+
+    private SyntheticScene scene;
+    private TrackingEngine engine;
+    private long sequence;
+
+    @BeforeClass
+    public static void loadLibrary() {
+        SyntheticScene.loadNativeLibrary();
+    }
+
+    @Before
+    public void setUp() {
+        scene = new SyntheticScene("160x120", OBJECTS);
+        engine = new TrackingEngine();
+        engine.start(scene.frame.cols(), scene.frame.rows());
+        for (TrackObject trackObject : scene.objects) {
+            engine.addObject(trackObject);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        engine.stop();
+        scene.release();
+    }
+
+    private TrackingResult frame(boolean nv21) {
+        long timestamp = sequence * 33333333L;
+        if (nv21) {
+            return engine.processNv21(scene.nv21, scene.frame.cols(), scene.frame.rows(), timestamp, sequence++);
+        }
+        return engine.process(scene.frame, null, timestamp, sequence++);
+    }
+
+    private void assertFlat(boolean nv21) {
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            frame(nv21);
+        }
+        int allocations = engine.getWorkspaceAllocationCount();
+        for (int i = 0; i < STEADY_FRAMES; i++) {
+            TrackingResult result = frame(nv21);
+            //the scene is found on every frame, so the windows stay in place
+            assertEquals("frame " + i, OBJECTS, result.getDetections().size());
+        }
+        assertEquals(allocations, engine.getWorkspaceAllocationCount());
+    }
+
+    @Test
+    public void fullFrame() {
+        assertFlat(false);
+    }
+
+    @Test
+    public void pyramid() {
+        engine.pyramidLevel = 1;
+        assertFlat(false);
+    }
+
+    @Test
+    public void windowedWithConnectedComponents() {
+        engine.searchMode = TrackingEngine.SearchModes.WINDOWED;
+        engine.blobExtractor = TrackingEngine.BlobExtractors.CONNECTED_COMPONENTS;
+        assertFlat(false);
+    }
+
+    @Test
+    public void rgbLookupInParallel() {
+        engine.colorClassifier = TrackingEngine.ColorClassifiers.RGB_LUT;
+        engine.executionMode = TrackingEngine.ExecutionModes.PARALLEL;
+        assertFlat(false);
+    }
+
+    @Test
+    public void nv21WithTrackerAndFlow() {
+        engine.searchMode = TrackingEngine.SearchModes.WINDOWED;
+        engine.useTracker = true;
+        engine.detectionInterval = 3;
+        assertFlat(true);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+    RobotCar.Devel.Tracking
+    Color based tracking of multiple objects with OpenCV on Android.
+    Copyright (C) 2018  Barnabás Nagy - otapiGems.com - otapiGems@protonmail.ch
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.otapigems.robotcar.devel.tracking;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The masks of the single pass classifier must be the masks of one Core.inRange per object.
+ */
+public class HsvClassifierTest {
+    //odd sizes, so no row is a multiple of a vector width
+    private static final int WIDTH = 97;
+    private static final int HEIGHT = 61;
+
+    private FrameWorkspace workspace;
+    private HsvClassifier classifier;
+    private Mat hsv;
+
+    @BeforeClass
+    public static void loadLibrary() {
+        SyntheticScene.loadNativeLibrary();
+    }
+
+    @Before
+    public void setUp() {
+        workspace = new FrameWorkspace();
+        workspace.allocate(WIDTH, HEIGHT);
+        classifier = new HsvClassifier(workspace);
+        //every H, S and V value occurs, the frame does not need to be a real image
+        byte[] pixels = new byte[WIDTH * HEIGHT * 3];
+        new Random(1).nextBytes(pixels);
+        hsv = new Mat(HEIGHT, WIDTH, CvType.CV_8UC3);
+        hsv.put(0, 0, pixels);
+    }
+
+    @After
+    public void tearDown() {
+        hsv.release();
+        workspace.release();
+    }
+
+    private static TrackObject object(String name, double hMin, double sMin, double vMin, double hMax, double sMax, double vMax) {
+        return new TrackObject(name, new Scalar(hMin, sMin, vMin), new Scalar(hMax, sMax, vMax), new Scalar(0, 0, 0, 255));
+    }
+
+    @Test
+    public void masksMatchInRange() {
+        List<TrackObject> objects = new ArrayList<>();
+        //red sits on both ends of the hue circle, it takes one object per end
+        objects.add(object("red low", 0, 100, 100, 20, 255, 255));
+        objects.add(object("red high", 235, 100, 100, 255, 255, 255));
+        //a range across the wrap is empty, for Core.inRange as well
+        objects.add(object("wrapped", 240, 0, 0, 15, 255, 255));
+        objects.add(object("fractional", 30.3, 50.2, 40, 60.7, 200.8, 255));
+        objects.add(object("everything", 0, 0, 0, 255, 255, 255));
+        objects.add(object("beyond the bounds", -5, -5, -5, 300, 300, 300));
+        objects.add(object("single value", 128, 0, 0, 128, 255, 255));
+        //more than 8 objects, so the labels take a second plane
+        Random random = new Random(2);
+        while (objects.size() < 12) {
+            int h = random.nextInt(200);
+            int s = random.nextInt(200);
+            int v = random.nextInt(200);
+            objects.add(object("random " + objects.size(), h, s, v,
+                    h + random.nextInt(56), s + random.nextInt(56), v + random.nextInt(56)));
+        }
+        for (TrackObject object : objects) {
+            classifier.addObject(object);
+        }
+
+        classifier.classify(hsv);
+
+        Mat mask = new Mat();
+        Mat expected = new Mat();
+        Mat diff = new Mat();
+        for (int i = 0; i < objects.size(); i++) {
+            TrackObject object = objects.get(i);
+            classifier.extractMask(i, mask);
+            Core.inRange(hsv, object.getHSVmin(), object.getHSVmax(), expected);
+            Core.bitwise_xor(mask, expected, diff);
+            assertEquals(object.getName(), 0, Core.countNonZero(diff));
+        }
+        mask.release();
+        expected.release();
+        diff.release();
+    }
+
+    @Test
+    public void rejectsObjectsBeyondTheLimit() {
+        for (int i = 0; i < HsvClassifier.MAX_OBJECTS; i++) {
+            assertEquals(i, classifier.addObject(object("Obj " + i, 0, 0, 0, 255, 255, 255)));
+        }
+        assertEquals(-1, classifier.addObject(object("one too many", 0, 0, 0, 255, 255, 255)));
+    }
+}
@@ -0,0 +1,147 @@
+/*
+    RobotCar.Devel.Tracking
+    Color based tracking of multiple objects with OpenCV on Android.
+    Copyright (C) 2018  Barnabás Nagy - otapiGems.com - otapiGems@protonmail.ch
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.otapigems.robotcar.devel.tracking;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Ids of the Kalman tracks across frames. Plain Java, no native library needed.
+ */
+public class KalmanTrackerTest {
+    //30 fps
+    private static final long FRAME_NANOS = 33333333L;
+    private static final double AREA = 400;
+
+    private final KalmanTracker tracker = new KalmanTracker();
+    private final Detections detections = new Detections(TrackingEngine.MAX_NUM_OBJECTS);
+    private final AtomicInteger ids = new AtomicInteger();
+    private long timestamp;
+
+    //one frame with a detection at every x, y pair
+    private void frame(int... positions) {
+        detections.clear();
+        for (int i = 0; i < positions.length; i += 2) {
+            detections.add(positions[i], positions[i + 1], AREA, 0, -1);
+        }
+        timestamp += FRAME_NANOS;
+        tracker.update(detections, 0, timestamp, ids);
+    }
+
+    @Test
+    public void idsStayWithTheirTargets() {
+        frame(100, 100, 300, 200);
+        int first = detections.getTrackId(0);
+        int second = detections.getTrackId(1);
+        assertNotEquals(first, second);
+        for (int f = 1; f < 30; f++) {
+            //4 and 2 pixels per frame, the detection order flips every frame
+            int x1 = 100 + 4 * f;
+            int x2 = 300 - 2 * f;
+            if (f % 2 == 0) {
+                frame(x1, 100, x2, 200);
+                assertEquals("frame " + f, first, detections.getTrackId(0));
+                assertEquals("frame " + f, second, detections.getTrackId(1));
+            } else {
+                frame(x2, 200, x1, 100);
+                assertEquals("frame " + f, second, detections.getTrackId(0));
+                assertEquals("frame " + f, first, detections.getTrackId(1));
+            }
+        }
+        List<Track> confirmed = new ArrayList<>();
+        tracker.confirmed(confirmed);
+        assertEquals(2, confirmed.size());
+    }
+
+    @Test
+    public void trackSurvivesMissedFrames() {
+        for (int f = 0; f < 10; f++) {
+            frame(100 + 5 * f, 100);
+        }
+        int id = detections.getTrackId(0);
+        frame();
+        frame();
+        //where the velocity puts it after the two missed frames
+        frame(160, 100);
+        assertEquals(id, detections.getTrackId(0));
+    }
+
+    @Test
+    public void gateRejectsJumps() {
+        for (int f = 0; f < 10; f++) {
+            frame(100, 100);
+        }
+        int id = detections.getTrackId(0);
+        frame(300, 300);
+        int jumped = detections.getTrackId(0);
+        assertNotEquals(id, jumped);
+        //the old track is still there, both continue
+        frame(100, 100, 300, 300);
+        assertEquals(id, detections.getTrackId(0));
+        assertEquals(jumped, detections.getTrackId(1));
+    }
+
+    @Test
+    public void lostTracksEnd() {
+        frame(100, 100);
+        for (int f = 0; f <= KalmanTracker.MAX_MISSES; f++) {
+            assertTrue("frame " + f, tracker.hasTracks());
+            frame();
+        }
+        assertFalse(tracker.hasTracks());
+    }
+
+    @Test
+    public void fullPoolRecyclesTheStalestTrack() {
+        int[] positions = new int[2 * (KalmanTracker.MAX_TRACKS + 1)];
+        for (int i = 0; i <= KalmanTracker.MAX_TRACKS; i++) {
+            positions[2 * i] = 50 + 100 * i;
+            positions[2 * i + 1] = 100;
+        }
+        frame(positions);
+        frame(positions);
+        for (int i = 0; i < KalmanTracker.MAX_TRACKS; i++) {
+            assertEquals(i, detections.getTrackId(i));
+        }
+        //every track was detected, the last one gets none
+        assertEquals(Detections.NO_TRACK, detections.getTrackId(KalmanTracker.MAX_TRACKS));
+
+        //the first target is gone, its track is the stalest
+        int[] rest = new int[positions.length - 2];
+        System.arraycopy(positions, 2, rest, 0, rest.length);
+        frame(rest);
+        for (int i = 0; i < KalmanTracker.MAX_TRACKS - 1; i++) {
+            assertEquals(i + 1, detections.getTrackId(i));
+        }
+        int recycled = detections.getTrackId(KalmanTracker.MAX_TRACKS - 1);
+        assertEquals(KalmanTracker.MAX_TRACKS, recycled);
+        frame(rest);
+        assertEquals(recycled, detections.getTrackId(KalmanTracker.MAX_TRACKS - 1));
+    }
+}
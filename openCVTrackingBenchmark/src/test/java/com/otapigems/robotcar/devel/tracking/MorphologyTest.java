@@ -0,0 +1,112 @@
+/*
+    RobotCar.Devel.Tracking
+    Color based tracking of multiple objects with OpenCV on Android.
+    Copyright (C) 2018  Barnabás Nagy - otapiGems.com - otapiGems@protonmail.ch
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.otapigems.robotcar.devel.tracking;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The fused kernels of Morphology must give the masks of the iterated passes it replaced:
+ * n erosions with a 3x3 rectangle, then n dilations with an 8x8 one, default anchors.
+ */
+public class MorphologyTest {
+    private static final int WIDTH = 120;
+    private static final int HEIGHT = 90;
+
+    private final Morphology morphology = new Morphology();
+    private Mat mask;
+    private Mat erodeKernel;
+    private Mat dilateKernel;
+
+    @BeforeClass
+    public static void loadLibrary() {
+        SyntheticScene.loadNativeLibrary();
+    }
+
+    @Before
+    public void setUp() {
+        //noise with blobs of all sizes, some of them cut by the border
+        mask = new Mat(HEIGHT, WIDTH, CvType.CV_8UC1);
+        Core.setRNGSeed(3);
+        Core.randu(mask, 0, 256);
+        Imgproc.threshold(mask, mask, 200, 255, Imgproc.THRESH_BINARY);
+        Imgproc.rectangle(mask, new Point(10, 10), new Point(40, 30), new Scalar(255), -1);
+        Imgproc.circle(mask, new Point(90, 60), 18, new Scalar(255), -1);
+        Imgproc.rectangle(mask, new Point(0, 70), new Point(12, 89), new Scalar(255), -1);
+        Imgproc.rectangle(mask, new Point(60, 2), new Point(62, 4), new Scalar(255), -1);
+        erodeKernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(Morphology.ERODE_SIZE, Morphology.ERODE_SIZE));
+        dilateKernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(Morphology.DILATE_SIZE, Morphology.DILATE_SIZE));
+    }
+
+    @After
+    public void tearDown() {
+        mask.release();
+        erodeKernel.release();
+        dilateKernel.release();
+        morphology.release();
+    }
+
+    @Test
+    public void fusedPassesMatchIteratedPasses() {
+        Mat fused = new Mat();
+        Mat iterated = new Mat();
+        Mat diff = new Mat();
+        for (int erode = 0; erode <= Morphology.MAX_ITERATIONS; erode++) {
+            for (int dilate = 0; dilate <= Morphology.MAX_ITERATIONS; dilate++) {
+                mask.copyTo(fused);
+                morphology.apply(fused, erode, dilate);
+
+                mask.copyTo(iterated);
+                for (int i = 0; i < erode; i++) {
+                    Imgproc.erode(iterated, iterated, erodeKernel);
+                }
+                for (int i = 0; i < dilate; i++) {
+                    Imgproc.dilate(iterated, iterated, dilateKernel);
+                }
+
+                Core.absdiff(fused, iterated, diff);
+                assertEquals("erode " + erode + ", dilate " + dilate, 0, Core.countNonZero(diff));
+            }
+        }
+        fused.release();
+        iterated.release();
+        diff.release();
+    }
+
+    @Test
+    public void fusedSize() {
+        assertEquals(3, Morphology.fusedSize(3, 1));
+        assertEquals(5, Morphology.fusedSize(3, 2));
+        assertEquals(8, Morphology.fusedSize(8, 1));
+        assertEquals(15, Morphology.fusedSize(8, 2));
+    }
+}
@@ -0,0 +1,271 @@
+/*
+    RobotCar.Devel.Tracking
+    Color based tracking of multiple objects with OpenCV on Android.
+    Copyright (C) 2018  Barnabás Nagy - otapiGems.com - otapiGems@protonmail.ch
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.otapigems.robotcar.devel.tracking;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The lookup table classifiers test the HSV of the cell center instead of the HSV of the
+ * pixel, so their labels may differ from the HSV path only for pixels close to a bound of
+ * the range. The window masks must be exactly the labels of the full frame.
+ */
+public class QuantizedClassifierTest {
+    //even, the NV21 frames need it
+    private static final int WIDTH = 96;
+    private static final int HEIGHT = 60;
+    //a cell is 4 values wide, the pixels are at most 2 from its center, plus the rounding of
+    //the conversion. With S and V at least 96, that moves V by 3, S by 14 and H by 8 at most.
+    private static final int[] RGB_TOLERANCE = {16, 20, 6};
+    //Y, U and V off by 2 move R, G and B by up to 6 after the conversion, V by 7, S by 40
+    //and H by 30 at most
+    private static final int[] YUV_TOLERANCE = {40, 48, 10};
+
+    private FrameWorkspace workspace;
+    //pulls the masks out of the label planes of both classifiers
+    private HsvClassifier masks;
+    private final List<TrackObject> objects = new ArrayList<>();
+
+    @BeforeClass
+    public static void loadLibrary() {
+        SyntheticScene.loadNativeLibrary();
+    }
+
+    @Before
+    public void setUp() {
+        workspace = new FrameWorkspace();
+        workspace.allocate(WIDTH, HEIGHT);
+        masks = new HsvClassifier(workspace);
+        //saturated and bright enough for a stable hue, see the tolerances
+        objects.add(object("red low", 0, 96, 96, 20, 255, 255));
+        objects.add(object("red high", 235, 96, 96, 255, 255, 255));
+        objects.add(object("yellow", 30.3, 120.6, 96, 60.7, 255, 230.2));
+        objects.add(object("green", 70, 96, 96, 110, 200, 255));
+        objects.add(object("blue", 150, 150, 120, 190, 255, 255));
+        objects.add(object("all bright", 0, 96, 200, 255, 255, 255));
+        objects.add(object("narrow", 100, 100, 100, 104, 255, 255));
+        objects.add(object("purple", 190, 96, 96, 235, 255, 255));
+        //a second label plane
+        objects.add(object("cyan", 110, 96, 96, 150, 255, 255));
+    }
+
+    @After
+    public void tearDown() {
+        workspace.release();
+    }
+
+    private static TrackObject object(String name, double hMin, double sMin, double vMin, double hMax, double sMax, double vMax) {
+        return new TrackObject(name, new Scalar(hMin, sMin, vMin), new Scalar(hMax, sMax, vMax), new Scalar(0, 0, 0, 255));
+    }
+
+    private static Mat randomFrame(int rows, int cols, int type, long seed) {
+        Mat frame = new Mat(rows, cols, type);
+        byte[] data = new byte[(int) (frame.total() * frame.channels())];
+        new Random(seed).nextBytes(data);
+        frame.put(0, 0, data);
+        return frame;
+    }
+
+    private static byte[] bytes(Mat mat) {
+        byte[] data = new byte[(int) (mat.total() * mat.channels())];
+        mat.get(0, 0, data);
+        return data;
+    }
+
+    //distance of a channel value from a bound, the hue is a circle
+    private static int distance(int channel, int value, int bound) {
+        int d = Math.abs(value - bound);
+        return channel == 0 ? Math.min(d, 256 - d) : d;
+    }
+
+    /**
+     * Compare the label masks of the classified frame with Core.inRange on its exact HSV
+     * @param hsv exact HSV of the pixels the labels were computed from
+     */
+    private void assertLabelsMatchHsv(Mat hsv, int[] tolerance) {
+        byte[] hsvData = bytes(hsv);
+        Mat mask = new Mat();
+        Mat expected = new Mat();
+        for (int i = 0; i < objects.size(); i++) {
+            TrackObject object = objects.get(i);
+            masks.extractMask(i, mask);
+            Core.inRange(hsv, object.getHSVmin(), object.getHSVmax(), expected);
+            byte[] labels = bytes(mask);
+            byte[] reference = bytes(expected);
+            int inRange = 0;
+            for (int p = 0; p < labels.length; p++) {
+                if (reference[p] != 0) {
+                    inRange++;
+                }
+                if (labels[p] == reference[p]) {
+                    continue;
+                }
+                boolean nearBound = false;
+                for (int c = 0; c < 3; c++) {
+                    int value = hsvData[p * 3 + c] & 0xff;
+                    nearBound |= distance(c, value, (int) Math.rint(object.getHSVmin().val[c])) <= tolerance[c]
+                            || distance(c, value, (int) Math.rint(object.getHSVmax().val[c])) <= tolerance[c];
+                }
+                assertTrue(object.getName() + ": pixel " + p + " with HSV " + (hsvData[p * 3] & 0xff) + ", "
+                        + (hsvData[p * 3 + 1] & 0xff) + ", " + (hsvData[p * 3 + 2] & 0xff)
+                        + " is far from the bounds", nearBound);
+            }
+            assertTrue(object.getName() + ": no pixel in the range, the frame does not test it", inRange > 0);
+        }
+        mask.release();
+        expected.release();
+    }
+
+    @Test
+    public void rgbTableIsBuiltOnFirstUse() {
+        RgbClassifier rgb = new RgbClassifier(workspace);
+        for (TrackObject object : objects) {
+            rgb.addObject(object);
+        }
+        assertArrayEquals(new int[QuantizedClassifier.CELLS], rgb.table);
+        rgb.update();
+        int cells = 0;
+        for (int label : rgb.table) {
+            if (label != 0) {
+                cells++;
+            }
+        }
+        assertTrue(cells > 0);
+    }
+
+    @Test
+    public void rgbLabelsMatchHsvWithinTheQuantization() {
+        RgbClassifier rgb = new RgbClassifier(workspace);
+        for (TrackObject object : objects) {
+            rgb.addObject(object);
+        }
+        Mat rgba = randomFrame(HEIGHT, WIDTH, CvType.CV_8UC4, 4);
+        rgb.classify(rgba);
+
+        Mat hsv = new Mat();
+        Imgproc.cvtColor(rgba, hsv, Imgproc.COLOR_RGB2HSV_FULL);
+        assertLabelsMatchHsv(hsv, RGB_TOLERANCE);
+
+        //the window path on the whole frame
+        Mat mask = new Mat(HEIGHT, WIDTH, CvType.CV_8UC1);
+        Mat window = new Mat(HEIGHT, WIDTH, CvType.CV_8UC1);
+        byte[] pixels = new byte[WIDTH * HEIGHT * 4];
+        byte[] maskData = new byte[WIDTH * HEIGHT];
+        for (int i = 0; i < objects.size(); i++) {
+            masks.extractMask(i, mask);
+            rgb.mask(rgba, i, window, pixels, maskData);
+            assertArrayEquals(objects.get(i).getName(), bytes(mask), bytes(window));
+        }
+        mask.release();
+        window.release();
+        hsv.release();
+        rgba.release();
+    }
+
+    @Test
+    public void yuvLabelsMatchHsvWithinTheQuantization() {
+        YuvClassifier yuv = new YuvClassifier(workspace);
+        for (TrackObject object : objects) {
+            yuv.addObject(object);
+        }
+        //every Y, U and V combination may occur in a camera frame
+        Mat nv21 = randomFrame(HEIGHT * 3 / 2, WIDTH, CvType.CV_8UC1, 5);
+        yuv.classify(nv21, WIDTH, HEIGHT, 0);
+
+        //the path of the RGBA frames
+        Mat hsv = new Mat();
+        Imgproc.cvtColor(nv21, hsv, Imgproc.COLOR_YUV2RGB_NV21);
+        Imgproc.cvtColor(hsv, hsv, Imgproc.COLOR_RGB2HSV_FULL);
+        assertLabelsMatchHsv(hsv, YUV_TOLERANCE);
+
+        //the window path on the whole frame
+        Mat mask = new Mat(HEIGHT, WIDTH, CvType.CV_8UC1);
+        Mat window = new Mat(HEIGHT, WIDTH, CvType.CV_8UC1);
+        byte[] pixels = new byte[WIDTH * HEIGHT * 3 / 2];
+        byte[] maskData = new byte[WIDTH * HEIGHT];
+        for (int i = 0; i < objects.size(); i++) {
+            masks.extractMask(i, mask);
+            yuv.mask(nv21, HEIGHT, new Rect(0, 0, WIDTH, HEIGHT), i, window, pixels, maskData);
+            assertArrayEquals(objects.get(i).getName(), bytes(mask), bytes(window));
+        }
+        mask.release();
+        window.release();
+        hsv.release();
+        nv21.release();
+    }
+
+    @Test
+    public void yuvWindowMatchesTheFrameLabels() {
+        YuvClassifier yuv = new YuvClassifier(workspace);
+        for (TrackObject object : objects) {
+            yuv.addObject(object);
+        }
+        Mat nv21 = randomFrame(HEIGHT * 3 / 2, WIDTH, CvType.CV_8UC1, 6);
+        yuv.classify(nv21, WIDTH, HEIGHT, 0);
+        //a window on even coordinates inside the frame, as the search windows place them
+        Rect rect = new Rect(10, 16, 40, 26);
+        Mat mask = new Mat();
+        Mat window = new Mat(rect.height, rect.width, CvType.CV_8UC1);
+        byte[] pixels = new byte[rect.width * rect.height * 3 / 2];
+        byte[] maskData = new byte[rect.width * rect.height];
+        for (int i = 0; i < objects.size(); i++) {
+            masks.extractMask(i, mask);
+            Mat region = mask.submat(rect);
+            Mat expected = region.clone();
+            region.release();
+            yuv.mask(nv21, HEIGHT, rect, i, window, pixels, maskData);
+            assertArrayEquals(objects.get(i).getName(), bytes(expected), bytes(window));
+            expected.release();
+        }
+        mask.release();
+        window.release();
+        nv21.release();
+    }
+
+    @Test
+    public void objectsAddedLaterKeepTheOthers() {
+        RgbClassifier rgb = new RgbClassifier(workspace);
+        rgb.addObject(objects.get(0));
+        rgb.update();
+        int[] first = rgb.table.clone();
+        assertEquals(1, rgb.addObject(objects.get(1)));
+        rgb.update();
+        for (int i = 0; i < QuantizedClassifier.CELLS; i++) {
+            assertEquals(first[i], rgb.table[i] & 1);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+    RobotCar.Devel.Tracking
+    Color based tracking of multiple objects with OpenCV on Android.
+    Copyright (C) 2018  Barnabás Nagy - otapiGems.com - otapiGems@protonmail.ch
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.otapigems.robotcar.devel.tracking;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Synthetic RGBA frame for the benchmarks: dark noise with one saturated disc per object.
+ * The objects get evenly spaced hues and an HSV range that matches only their own disc.
+ */
+class SyntheticScene {
+    //Core.NATIVE_LIBRARY_NAME calls into the library, so it can not be used to load it
+    static final String NATIVE_LIBRARY = "opencv_java331";
+
+    final Mat frame;
+    //the same frame as the camera delivers it
+    final Mat nv21;
+    final List<TrackObject> objects = new ArrayList<>();
+
+    static void loadNativeLibrary() {
+        System.loadLibrary(NATIVE_LIBRARY);
+    }
+
+    /**
+     * @param resolution "widthxheight", e.g. "640x480"
+     * @param objectCount number of objects (and discs)
+     */
+    SyntheticScene(String resolution, int objectCount) {
+        String[] size = resolution.split("x");
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+
+        frame = new Mat(height, width, CvType.CV_8UC4);
+        //V <= 64 everywhere, below the V minimum of every object
+        Core.randu(frame, 0, 64);
+
+        int columns = (int) Math.ceil(Math.sqrt(objectCount));
+        int rows = (objectCount + columns - 1) / columns;
+        int cellWidth = width / columns;
+        int cellHeight = height / rows;
+        int radius = Math.min(cellWidth, cellHeight) / 4;
+        //hue is 0..255 with COLOR_RGB2HSV_FULL
+        double hueStep = 256.0 / objectCount;
+        double hueMargin = Math.max(2, hueStep / 2 - 2);
+
+        for (int i = 0; i < objectCount; i++) {
+            double hue = (i + 0.5) * hueStep;
+            Scalar rgba = HsvCalibration.convertScalarHsv2Rgba(new Scalar(hue, 255, 255));
+            Point center = new Point((i % columns) * cellWidth + cellWidth / 2,
+                    (i / columns) * cellHeight + cellHeight / 2);
+            Imgproc.circle(frame, center, radius, new Scalar(rgba.val[0], rgba.val[1], rgba.val[2], 255), -1);
+
+            objects.add(new TrackObject("Obj " + i,
+                    new Scalar(Math.max(0, hue - hueMargin), 150, 150),
+                    new Scalar(Math.min(255, hue + hueMargin), 255, 255),
+                    rgba));
+        }
+        nv21 = toNv21(frame);
+    }
+
+    //OpenCV converts to planar I420 only, NV21 interleaves V and U after the Y plane
+    private static Mat toNv21(Mat rgba) {
+        int width = rgba.cols();
+        int height = rgba.rows();
+        Mat i420 = new Mat();
+        Imgproc.cvtColor(rgba, i420, Imgproc.COLOR_RGBA2YUV_I420);
+        byte[] planar = new byte[width * height * 3 / 2];
+        i420.get(0, 0, planar);
+        i420.release();
+
+        byte[] interleaved = new byte[planar.length];
+        int luma = width * height;
+        int chroma = luma / 4;
+        System.arraycopy(planar, 0, interleaved, 0, luma);
+        for (int i = 0; i < chroma; i++) {
+            interleaved[luma + 2 * i] = planar[luma + chroma + i];
+            interleaved[luma + 2 * i + 1] = planar[luma + i];
+        }
+        Mat nv21 = new Mat(height * 3 / 2, width, CvType.CV_8UC1);
+        nv21.put(0, 0, interleaved);
+        return nv21;
+    }
+
+    void release() {
+        frame.release();
+        nv21.release();
+    }
+}
@@ -0,0 +1,177 @@
+package org.opencv.android;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * YuvImageSource of generated images, queued like an ImageReader. The planes follow the
+ * layouts of the camera HALs: rows padded to the row stride, planar chroma (pixel stride 1)
+ * or one interleaved VU buffer (pixel stride 2) that ends on the last V, so the U and V
+ * buffers are one byte shorter than their rows. The padding holds PADDING bytes, a packer
+ * that reads them shows up in the pixels.
+ */
+class FakeYuvImageSource implements YuvImageSource {
+    static final byte PADDING = (byte) 0xEE;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mRowStride;
+    private final int mPixelStride;
+    private final ArrayDeque<FakeYuvImage> mQueue = new ArrayDeque<>();
+    private Listener mListener;
+    private int mOpen;
+
+    /**
+     * @param rowStride bytes per row of every plane, at least width
+     * @param pixelStride 1 or 2
+     */
+    FakeYuvImageSource(int width, int height, int rowStride, int pixelStride) {
+        mWidth = width;
+        mHeight = height;
+        mRowStride = rowStride;
+        mPixelStride = pixelStride;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Queue an image without calling the listener, e.g. to pile up images the consumer skips
+     * @param seed the pixels are a function of the seed, see y(), u() and v()
+     */
+    FakeYuvImage queue(int seed, long timestamp) {
+        FakeYuvImage image = new FakeYuvImage(seed, timestamp);
+        mQueue.add(image);
+        return image;
+    }
+
+    /**
+     * Call the listener like ImageReader does after a capture
+     */
+    void signal() {
+        if (mListener != null)
+            mListener.onImageAvailable(this);
+    }
+
+    @Override
+    public YuvImage acquireNextImage() {
+        FakeYuvImage image = mQueue.poll();
+        if (image != null)
+            mOpen++;
+        return image;
+    }
+
+    @Override
+    public void close() {
+        mQueue.clear();
+    }
+
+    /**
+     * @return images acquired and not closed yet
+     */
+    int getOpen() {
+        return mOpen;
+    }
+
+    static byte y(int seed, int x, int y) {
+        return (byte) (x * 7 + y * 13 + seed);
+    }
+
+    static byte u(int seed, int x, int y) {
+        return (byte) (x * 3 + y * 5 + seed + 64);
+    }
+
+    static byte v(int seed, int x, int y) {
+        return (byte) (x * 11 + y * 2 + seed + 128);
+    }
+
+    class FakeYuvImage implements YuvImage {
+        private final long mTimestamp;
+        private final ByteBuffer[] mPlanes = new ByteBuffer[3];
+        private boolean mClosed;
+
+        FakeYuvImage(int seed, long timestamp) {
+            mTimestamp = timestamp;
+            byte[] luma = new byte[mRowStride * mHeight];
+            Arrays.fill(luma, PADDING);
+            for (int row = 0; row < mHeight; row++)
+                for (int col = 0; col < mWidth; col++)
+                    luma[row * mRowStride + col] = y(seed, col, row);
+            mPlanes[0] = ByteBuffer.wrap(luma);
+
+            int chromaRows = mHeight / 2;
+            int chromaCols = mWidth / 2;
+            if (mPixelStride == 2) {
+                //V at the even bytes, U at the odd ones, the buffer ends on the last V
+                byte[] vu = new byte[mRowStride * (chromaRows - 1) + mWidth];
+                Arrays.fill(vu, PADDING);
+                for (int row = 0; row < chromaRows; row++)
+                    for (int col = 0; col < chromaCols; col++) {
+                        vu[row * mRowStride + 2 * col] = v(seed, col, row);
+                        vu[row * mRowStride + 2 * col + 1] = u(seed, col, row);
+                    }
+                int length = vu.length - 1;
+                mPlanes[2] = ByteBuffer.wrap(vu, 0, length).slice();
+                mPlanes[1] = ByteBuffer.wrap(vu, 1, length).slice();
+            } else {
+                //the last row is not padded
+                byte[] uPlane = new byte[mRowStride * (chromaRows - 1) + chromaCols];
+                byte[] vPlane = new byte[uPlane.length];
+                Arrays.fill(uPlane, PADDING);
+                Arrays.fill(vPlane, PADDING);
+                for (int row = 0; row < chromaRows; row++)
+                    for (int col = 0; col < chromaCols; col++) {
+                        uPlane[row * mRowStride + col] = u(seed, col, row);
+                        vPlane[row * mRowStride + col] = v(seed, col, row);
+                    }
+                mPlanes[1] = ByteBuffer.wrap(uPlane);
+                mPlanes[2] = ByteBuffer.wrap(vPlane);
+            }
+        }
+
+        boolean isClosed() {
+            return mClosed;
+        }
+
+        @Override
+        public int getWidth() {
+            return mWidth;
+        }
+
+        @Override
+        public int getHeight() {
+            return mHeight;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        @Override
+        public ByteBuffer getBuffer(int plane) {
+            return mPlanes[plane];
+        }
+
+        @Override
+        public int getRowStride(int plane) {
+            return mRowStride;
+        }
+
+        @Override
+        public int getPixelStride(int plane) {
+            return plane == 0 ? 1 : mPixelStride;
+        }
+
+        @Override
+        public void close() {
+            if (mClosed)
+                throw new IllegalStateException("Image closed twice");
+            mClosed = true;
+            mOpen--;
+        }
+    }
+}
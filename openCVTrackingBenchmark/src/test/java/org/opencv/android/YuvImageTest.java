@@ -0,0 +1,117 @@
+package org.opencv.android;
+
+import org.junit.Test;
+import org.opencv.android.FakeYuvImageSource.FakeYuvImage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The YUV_420_888 path of JavaCamera2View with fake images: the NV21 packing of
+ * YuvImageFrame and the skip to the newest image of YuvFrameDispatcher.
+ * Needs no camera and no native OpenCV.
+ */
+public class YuvImageTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @Test
+    public void packPlanar() {
+        checkPacking(WIDTH, 1);
+    }
+
+    @Test
+    public void packPlanarWithRowPadding() {
+        checkPacking(WIDTH + 16, 1);
+    }
+
+    @Test
+    public void packSemiPlanar() {
+        checkPacking(WIDTH, 2);
+    }
+
+    @Test
+    public void packSemiPlanarWithRowPadding() {
+        checkPacking(WIDTH + 32, 2);
+    }
+
+    private static void checkPacking(int rowStride, int pixelStride) {
+        FakeYuvImageSource source = new FakeYuvImageSource(WIDTH, HEIGHT, rowStride, pixelStride);
+        Nv21Packer packer = new Nv21Packer(WIDTH, HEIGHT);
+        //the second image has to overwrite every byte of the first one
+        for (int seed = 1; seed <= 2; seed++) {
+            source.queue(seed, seed);
+            YuvImage image = source.acquireNextImage();
+            packer.pack(image);
+            image.close();
+            byte[] data = packer.getData();
+            assertEquals(WIDTH * HEIGHT * 3 / 2, data.length);
+            for (int row = 0; row < HEIGHT; row++)
+                for (int col = 0; col < WIDTH; col++)
+                    assertEquals("Y at " + col + "," + row,
+                            FakeYuvImageSource.y(seed, col, row), data[row * WIDTH + col]);
+            int offset = WIDTH * HEIGHT;
+            for (int row = 0; row < HEIGHT / 2; row++)
+                for (int col = 0; col < WIDTH / 2; col++) {
+                    int index = offset + row * WIDTH + 2 * col;
+                    assertEquals("V at " + col + "," + row,
+                            FakeYuvImageSource.v(seed, col, row), data[index]);
+                    assertEquals("U at " + col + "," + row,
+                            FakeYuvImageSource.u(seed, col, row), data[index + 1]);
+                }
+        }
+        assertEquals("images left open", 0, source.getOpen());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectSizeMismatch() {
+        FakeYuvImageSource source = new FakeYuvImageSource(WIDTH, HEIGHT, WIDTH, 2);
+        source.queue(1, 1);
+        YuvImage image = source.acquireNextImage();
+        try {
+            new Nv21Packer(WIDTH / 2, HEIGHT / 2).pack(image);
+        } finally {
+            image.close();
+        }
+    }
+
+    @Test
+    public void skipToNewestImage() {
+        FakeYuvImageSource source = new FakeYuvImageSource(WIDTH, HEIGHT, WIDTH, 2);
+        ImageSequencer sequencer = new ImageSequencer();
+        assertNull(sequencer.acquireNewest(source));
+        assertEquals(-1, sequencer.getSequence());
+
+        //three images piled up while the consumer was busy: the newest one wins
+        FakeYuvImage first = source.queue(1, 100);
+        FakeYuvImage second = source.queue(2, 200);
+        FakeYuvImage third = source.queue(3, 300);
+        YuvImage image = sequencer.acquireNewest(source);
+        assertSame(third, image);
+        assertTrue(first.isClosed());
+        assertTrue(second.isClosed());
+        assertFalse(third.isClosed());
+        assertEquals(2, sequencer.getSequence());
+        assertEquals(2, sequencer.getSkipped());
+        image.close();
+
+        //one image: the next number, no gap
+        source.queue(4, 400);
+        image = sequencer.acquireNewest(source);
+        assertEquals(3, sequencer.getSequence());
+        image.close();
+
+        //two images: a gap of one
+        source.queue(5, 500);
+        source.queue(6, 600);
+        image = sequencer.acquireNewest(source);
+        assertEquals(600, image.getTimestamp());
+        assertEquals(5, sequencer.getSequence());
+        assertEquals(3, sequencer.getSkipped());
+        image.close();
+        assertEquals("images left open", 0, source.getOpen());
+    }
+}